@@ -0,0 +1,169 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.epics.channelfinder.ChannelQuery.Format;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVString;
+import org.epics.pvdata.pv.PVStructure;
+
+/**
+ * A batch of independent channel queries executed in a single round trip.
+ *
+ * The batch request is a structure with a queries structure holding one
+ * structure per query, whose string fields are the key words of the query as
+ * in the query of an NTURI request, and an optional _format of the result
+ * table.
+ *
+ * <pre>
+ * structure
+ *     structure queries
+ *         structure q0
+ *             string _name SR*C001*
+ *         structure q1
+ *             string _tag group8_50
+ *     string _format sparse
+ * </pre>
+ *
+ * The queries are executed as one elastic multi search and the channels of
+ * all the queries are returned in one NTTable with a queryIndex column of the
+ * position of the query each channel matched.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelBatch {
+
+    private static Logger log = Logger.getLogger(ChannelBatch.class.getCanonicalName());
+
+    /** the name of the structure of the queries of a batch request */
+    public static final String QUERIES = "queries";
+
+    private final List<ChannelQuery> queries;
+    private final Format format;
+
+    private final String canonical;
+
+    private ChannelBatch(List<ChannelQuery> queries, Format format) {
+        this.queries = queries;
+        this.format = format;
+        this.canonical = createCanonical();
+    }
+
+    /**
+     * @param args - a request
+     * @return true if the request is a batch request
+     */
+    public static boolean isBatch(PVStructure args) {
+        return args.getSubField(PVStructure.class, QUERIES) != null;
+    }
+
+    /**
+     * Create the batch of queries of a batch request
+     *
+     * @param args - the batch request
+     * @return the batch of canonical queries
+     * @throws IllegalArgumentException if a query is not a structure or is not
+     *             a channel query
+     */
+    public static ChannelBatch of(PVStructure args) {
+        List<Map<String, String>> queries = new ArrayList<>();
+        for (PVField field : args.getSubField(PVStructure.class, QUERIES).getPVFields()) {
+            if (!(field instanceof PVStructure)) {
+                throw new IllegalArgumentException("the query " + field.getFieldName() + " is not a structure");
+            }
+            Map<String, String> parameters = new LinkedHashMap<>();
+            for (PVField parameter : ((PVStructure) field).getPVFields()) {
+                if (parameter instanceof PVString) {
+                    parameters.put(parameter.getFieldName(), ((PVString) parameter).get());
+                }
+            }
+            queries.add(parameters);
+        }
+        PVString format = args.getSubField(PVString.class, "_format");
+        return of(queries, format != null ? format.get() : "");
+    }
+
+    /**
+     * Create a batch of queries
+     *
+     * @param queries - the key words and values of each query
+     * @param format - the format of the result table, dense if empty
+     * @return the batch of canonical queries
+     * @throws IllegalArgumentException if a query is not a channel query
+     */
+    public static ChannelBatch of(List<Map<String, String>> queries, String format) {
+        List<ChannelQuery> channelQueries = new ArrayList<>();
+        for (Map<String, String> parameters : queries) {
+            ChannelQuery query = ChannelQuery.of(parameters);
+            if (query.getMode() != ChannelQuery.Mode.CHANNELS || query.isPaged()) {
+                throw new IllegalArgumentException(
+                        "only channel queries without a _cursor can be batched: " + query);
+            }
+            channelQueries.add(query);
+        }
+        Format tableFormat = Format.DENSE;
+        if (!format.trim().isEmpty()) {
+            try {
+                tableFormat = Format.valueOf(format.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warning("unknown format: " + format);
+            }
+        }
+        return new ChannelBatch(Collections.unmodifiableList(channelQueries), tableFormat);
+    }
+
+    /**
+     * @return the canonical queries of the batch, in the order of the request
+     */
+    public List<ChannelQuery> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return the encoding of the result table
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    private String createCanonical() {
+        StringBuilder canonical = new StringBuilder("_batch");
+        for (ChannelQuery query : queries) {
+            canonical.append('[').append(query).append(']');
+        }
+        if (format != Format.DENSE) {
+            canonical.append("_format=").append(format.name().toLowerCase());
+        }
+        return canonical.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ChannelBatch)) {
+            return false;
+        }
+        return canonical.equals(((ChannelBatch) obj).canonical);
+    }
+
+    /**
+     * @return the canonical form of the batch, the key of its cached result
+     */
+    @Override
+    public String toString() {
+        return canonical;
+    }
+}
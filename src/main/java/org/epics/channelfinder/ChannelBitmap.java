@@ -0,0 +1,583 @@
+package org.epics.channelfinder;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable compressed bitmap of channel positions, after the roaring
+ * bitmap format.
+ *
+ * The positions are split by their high 16 bits into chunks of 65536
+ * positions, each chunk is held in the smallest of three containers: a sorted
+ * array of the low 16 bits of at most 4096 positions, a bitset of 1024 words
+ * or a sorted list of runs of consecutive positions. A tag set on every
+ * channel is a single run per chunk, so intersecting such tags costs a few
+ * operations per chunk.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public final class ChannelBitmap {
+
+    /** the empty bitmap */
+    public static final ChannelBitmap EMPTY = new ChannelBitmap(new char[0], new Container[0]);
+
+    /** the maximum number of positions held by an array container */
+    private static final int MAX_ARRAY = 4096;
+    /** the number of words of a bitset container */
+    private static final int WORDS = 1024;
+
+    private final char[] keys;
+    private final Container[] containers;
+
+    private ChannelBitmap(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    /**
+     * @param positions - the positions in ascending order
+     * @return the bitmap of the positions
+     */
+    public static ChannelBitmap of(int... positions) {
+        Builder builder = new Builder();
+        for (int position : positions) {
+            builder.add(position);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param from - the first position, inclusive
+     * @param to - the last position, exclusive
+     * @return the bitmap of all the positions in the range
+     */
+    public static ChannelBitmap range(int from, int to) {
+        if (from >= to) {
+            return EMPTY;
+        }
+        int first = from >>> 16;
+        int last = (to - 1) >>> 16;
+        char[] keys = new char[last - first + 1];
+        Container[] containers = new Container[keys.length];
+        for (int key = first; key <= last; key++) {
+            int start = key == first ? from & 0xFFFF : 0;
+            int end = key == last ? (to - 1) & 0xFFFF : 0xFFFF;
+            keys[key - first] = (char) key;
+            containers[key - first] = new RunContainer(new char[] { (char) start, (char) end });
+        }
+        return new ChannelBitmap(keys, containers);
+    }
+
+    /**
+     * Builds a bitmap from positions added in ascending order
+     */
+    public static final class Builder {
+        private char[] keys = new char[1];
+        private Container[] containers = new Container[1];
+        private int size = 0;
+
+        private int key = -1;
+        private char[] values = new char[8];
+        private int count = 0;
+
+        /**
+         * @param position - a position not lower than the previously added
+         *            positions
+         * @return this builder
+         */
+        public Builder add(int position) {
+            int high = position >>> 16;
+            if (high != key) {
+                flush();
+                key = high;
+            } else if (count > 0 && values[count - 1] == (char) position) {
+                return this;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length * 2, 65536));
+            }
+            values[count++] = (char) position;
+            return this;
+        }
+
+        private void flush() {
+            if (count > 0) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    containers = Arrays.copyOf(containers, size * 2);
+                }
+                keys[size] = (char) key;
+                containers[size++] = fromSorted(values, count);
+                count = 0;
+            }
+        }
+
+        /**
+         * @return the bitmap of the added positions
+         */
+        public ChannelBitmap build() {
+            flush();
+            return size == 0 ? EMPTY : new ChannelBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size));
+        }
+    }
+
+    /**
+     * @return the number of positions
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return true if the bitmap has no positions
+     */
+    public boolean isEmpty() {
+        return containers.length == 0;
+    }
+
+    /**
+     * @param position - a position
+     * @return true if the bitmap holds the position
+     */
+    public boolean contains(int position) {
+        int index = Arrays.binarySearch(keys, (char) (position >>> 16));
+        return index >= 0 && containers[index].contains((char) position);
+    }
+
+    /**
+     * @param other - a bitmap
+     * @return the positions held by both bitmaps
+     */
+    public ChannelBitmap and(ChannelBitmap other) {
+        char[] resultKeys = new char[Math.min(keys.length, other.keys.length)];
+        Container[] resultContainers = new Container[resultKeys.length];
+        int size = 0;
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length;) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    resultKeys[size] = keys[i];
+                    resultContainers[size++] = container;
+                }
+                i++;
+                j++;
+            }
+        }
+        return size == 0 ? EMPTY
+                : new ChannelBitmap(Arrays.copyOf(resultKeys, size), Arrays.copyOf(resultContainers, size));
+    }
+
+    /**
+     * @param other - a bitmap
+     * @return the positions held by either bitmap
+     */
+    public ChannelBitmap or(ChannelBitmap other) {
+        char[] resultKeys = new char[keys.length + other.keys.length];
+        Container[] resultContainers = new Container[resultKeys.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                resultKeys[size] = keys[i];
+                resultContainers[size++] = containers[i++];
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                resultKeys[size] = other.keys[j];
+                resultContainers[size++] = other.containers[j++];
+            } else {
+                resultKeys[size] = keys[i];
+                resultContainers[size++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        return new ChannelBitmap(Arrays.copyOf(resultKeys, size), Arrays.copyOf(resultContainers, size));
+    }
+
+    /**
+     * Visit the positions from a position in ascending order
+     *
+     * @param from - the first position to visit
+     * @param visitor - called with each position, the visit stops when it
+     *            returns false
+     */
+    public void forEach(int from, IntPredicate visitor) {
+        int first = from >>> 16;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] < first) {
+                continue;
+            }
+            int low = keys[i] == first ? from & 0xFFFF : 0;
+            if (!containers[i].forEach(keys[i] << 16, low, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the positions in ascending order
+     */
+    public int[] toArray() {
+        int[] positions = new int[cardinality()];
+        int[] count = new int[1];
+        forEach(0, (position) -> {
+            positions[count[0]++] = position;
+            return true;
+        });
+        return positions;
+    }
+
+    /**
+     * @return the kinds of the containers, for the tests
+     */
+    String containerKinds() {
+        StringBuilder kinds = new StringBuilder();
+        for (Container container : containers) {
+            kinds.append(container.getClass().getSimpleName().charAt(0));
+        }
+        return kinds.toString();
+    }
+
+    /**
+     * Create the smallest container of sorted distinct values
+     */
+    private static Container fromSorted(char[] values, int count) {
+        int runs = 1;
+        for (int i = 1; i < count; i++) {
+            if (values[i] != values[i - 1] + 1) {
+                runs++;
+            }
+        }
+        if (runs * 2 < Math.min(count, MAX_ARRAY)) {
+            char[] bounds = new char[runs * 2];
+            bounds[0] = values[0];
+            int run = 0;
+            for (int i = 1; i < count; i++) {
+                if (values[i] != values[i - 1] + 1) {
+                    bounds[run * 2 + 1] = values[i - 1];
+                    run++;
+                    bounds[run * 2] = values[i];
+                }
+            }
+            bounds[run * 2 + 1] = values[count - 1];
+            return new RunContainer(bounds);
+        }
+        if (count <= MAX_ARRAY) {
+            return new ArrayContainer(Arrays.copyOf(values, count));
+        }
+        long[] words = new long[WORDS];
+        for (int i = 0; i < count; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return new BitmapContainer(words, count);
+    }
+
+    /**
+     * Create the smallest container of the bits of a bitset
+     */
+    private static Container fromWords(long[] words) {
+        int cardinality = 0;
+        int runs = 0;
+        long previous = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+            runs += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+            previous = word;
+        }
+        if (runs * 2 < Math.min(cardinality, MAX_ARRAY) || cardinality <= MAX_ARRAY) {
+            char[] values = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    values[count++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+                }
+            }
+            return fromSorted(values, count);
+        }
+        return new BitmapContainer(words, cardinality);
+    }
+
+    /**
+     * The low 16 bits of the positions of a chunk
+     */
+    private abstract static class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        /**
+         * @return the container as a bitset
+         */
+        abstract long[] toWords();
+
+        /**
+         * Visit the values from low in ascending order
+         *
+         * @param high - the high bits of the positions of the chunk
+         * @return false if the visitor stopped the visit
+         */
+        abstract boolean forEach(int high, int low, IntPredicate visitor);
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] words = toWords();
+            long[] otherWords = other.toWords();
+            for (int i = 0; i < WORDS; i++) {
+                words[i] &= otherWords[i];
+            }
+            return fromWords(words);
+        }
+
+        Container or(Container other) {
+            long[] words = toWords();
+            long[] otherWords = other.toWords();
+            for (int i = 0; i < WORDS; i++) {
+                words[i] |= otherWords[i];
+            }
+            return fromWords(words);
+        }
+    }
+
+    /**
+     * At most 4096 sorted values
+     */
+    private static final class ArrayContainer extends Container {
+        private final char[] values;
+
+        private ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            for (char value : values) {
+                words[value >>> 6] |= 1L << value;
+            }
+            return words;
+        }
+
+        @Override
+        boolean forEach(int high, int low, IntPredicate visitor) {
+            int start = Arrays.binarySearch(values, (char) low);
+            for (int i = start >= 0 ? start : -start - 1; i < values.length; i++) {
+                if (!visitor.test(high | values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[values.length];
+            int count = 0;
+            for (char value : values) {
+                if (other.contains(value)) {
+                    result[count++] = value;
+                }
+            }
+            return new ArrayContainer(Arrays.copyOf(result, count));
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return super.or(other);
+            }
+            char[] otherValues = ((ArrayContainer) other).values;
+            char[] result = new char[values.length + otherValues.length];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < values.length || j < otherValues.length) {
+                if (j == otherValues.length || (i < values.length && values[i] < otherValues[j])) {
+                    result[count++] = values[i++];
+                } else if (i == values.length || values[i] > otherValues[j]) {
+                    result[count++] = otherValues[j++];
+                } else {
+                    result[count++] = values[i++];
+                    j++;
+                }
+            }
+            return fromSorted(result, count);
+        }
+    }
+
+    /**
+     * A bitset of 65536 bits
+     */
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private final int cardinality;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        long[] toWords() {
+            return words.clone();
+        }
+
+        @Override
+        boolean forEach(int high, int low, IntPredicate visitor) {
+            for (int i = low >>> 6; i < WORDS; i++) {
+                long word = i == low >>> 6 ? words[i] & (-1L << low) : words[i];
+                for (; word != 0; word &= word - 1) {
+                    if (!visitor.test(high | (i * 64 + Long.numberOfTrailingZeros(word)))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sorted runs of consecutive values, the first and last value of each run
+     */
+    private static final class RunContainer extends Container {
+        private final char[] bounds;
+
+        private RunContainer(char[] bounds) {
+            this.bounds = bounds;
+        }
+
+        @Override
+        int cardinality() {
+            int cardinality = 0;
+            for (int i = 0; i < bounds.length; i += 2) {
+                cardinality += bounds[i + 1] - bounds[i] + 1;
+            }
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            int low = 0;
+            int high = bounds.length / 2 - 1;
+            while (low <= high) {
+                int run = (low + high) >>> 1;
+                if (value < bounds[run * 2]) {
+                    high = run - 1;
+                } else if (value > bounds[run * 2 + 1]) {
+                    low = run + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < bounds.length; i += 2) {
+                for (int value = bounds[i]; value <= bounds[i + 1]; value++) {
+                    words[value >>> 6] |= 1L << value;
+                }
+            }
+            return words;
+        }
+
+        @Override
+        boolean forEach(int high, int low, IntPredicate visitor) {
+            for (int i = 0; i < bounds.length; i += 2) {
+                for (int value = Math.max(bounds[i], low); value <= bounds[i + 1]; value++) {
+                    if (!visitor.test(high | value)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (!(other instanceof RunContainer)) {
+                return super.and(other);
+            }
+            char[] otherBounds = ((RunContainer) other).bounds;
+            char[] result = new char[bounds.length + otherBounds.length];
+            int count = 0;
+            for (int i = 0, j = 0; i < bounds.length && j < otherBounds.length;) {
+                char start = (char) Math.max(bounds[i], otherBounds[j]);
+                char end = (char) Math.min(bounds[i + 1], otherBounds[j + 1]);
+                if (start <= end) {
+                    result[count++] = start;
+                    result[count++] = end;
+                }
+                if (bounds[i + 1] < otherBounds[j + 1]) {
+                    i += 2;
+                } else {
+                    j += 2;
+                }
+            }
+            return count == 0 ? new ArrayContainer(new char[0]) : new RunContainer(Arrays.copyOf(result, count));
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof RunContainer)) {
+                return super.or(other);
+            }
+            char[] otherBounds = ((RunContainer) other).bounds;
+            char[] result = new char[bounds.length + otherBounds.length];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < bounds.length || j < otherBounds.length) {
+                char start;
+                char end;
+                if (j == otherBounds.length || (i < bounds.length && bounds[i] <= otherBounds[j])) {
+                    start = bounds[i];
+                    end = bounds[i + 1];
+                    i += 2;
+                } else {
+                    start = otherBounds[j];
+                    end = otherBounds[j + 1];
+                    j += 2;
+                }
+                if (count > 0 && start <= result[count - 1] + 1) {
+                    result[count - 1] = (char) Math.max(result[count - 1], end);
+                } else {
+                    result[count++] = start;
+                    result[count++] = end;
+                }
+            }
+            return new RunContainer(Arrays.copyOf(result, count));
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.epics.channelfinder.ChannelQuery.Format;
+import org.epics.channelfinder.TableStructureCache.Column;
+import org.epics.nt.NTTable;
+import org.epics.pvdata.pv.PVBooleanArray;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVIntArray;
+import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+
+/**
+ * The columns of a query result, one pre-sized array per column.
+ *
+ * The channel names and owners are always returned, the properties and tags
+ * are filtered by the _filter of the query. Each property and tag name is
+ * resolved once per occurrence through a single index lookup, which also
+ * records the names excluded by the filter, and the column arrays are shared
+ * with the NTTable without being copied.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelColumns implements ChannelHitDecoder.ColumnSink {
+
+    /** the structures of the tables of the most recently requested column sets */
+    private static final TableStructureCache structures = new TableStructureCache(1000);
+
+    /** the index of the properties and tags excluded by the filter */
+    private static final int EXCLUDED = -1;
+    /** the structure of the sparse columns, next to the value of the table */
+    static final String SPARSE = "sparse";
+    /** the structure of the dictionaries, next to the value of the table */
+    static final String DICTIONARIES = "dictionaries";
+
+    private final int size;
+    private final Set<String> filter;
+    private final boolean namesOnly;
+
+    private final String[] names;
+    private final String[] owners;
+
+    private final Map<String, Integer> propertyIndex = new HashMap<>();
+    private final List<String> propertyNames = new ArrayList<>();
+    private final List<String[]> propertyValues = new ArrayList<>();
+
+    private final Map<String, Integer> tagIndex = new HashMap<>();
+    private final List<String> tagNames = new ArrayList<>();
+    private final List<boolean[]> tagValues = new ArrayList<>();
+
+    /** the index of the query of each row of a batch result, null otherwise */
+    private int[] queryIndex;
+
+    /**
+     * @param size - the number of rows
+     * @param filter - the properties and tags to be returned, all if empty and
+     *            none if it contains "ALL"
+     */
+    public ChannelColumns(int size, Set<String> filter) {
+        this.size = size;
+        this.filter = filter;
+        this.namesOnly = filter.contains("ALL");
+        this.names = new String[size];
+        this.owners = new String[size];
+    }
+
+    private boolean included(String column) {
+        return !namesOnly && (filter.isEmpty() || filter.contains(column));
+    }
+
+    private int propertyColumn(String name) {
+        Integer column = propertyIndex.get(name);
+        if (column == null) {
+            if (included(name)) {
+                column = propertyNames.size();
+                propertyNames.add(name);
+                propertyValues.add(new String[size]);
+            } else {
+                column = EXCLUDED;
+            }
+            propertyIndex.put(name, column);
+        }
+        return column;
+    }
+
+    private int tagColumn(String name) {
+        Integer column = tagIndex.get(name);
+        if (column == null) {
+            if (included(name)) {
+                column = tagNames.size();
+                tagNames.add(name);
+                tagValues.add(new boolean[size]);
+            } else {
+                column = EXCLUDED;
+            }
+            tagIndex.put(name, column);
+        }
+        return column;
+    }
+
+    @Override
+    public void name(int row, String name) {
+        names[row] = name;
+    }
+
+    @Override
+    public void owner(int row, String owner) {
+        owners[row] = owner;
+    }
+
+    @Override
+    public void property(int row, String name, String value) {
+        int column = propertyColumn(name);
+        if (column != EXCLUDED) {
+            propertyValues.get(column)[row] = value;
+        }
+    }
+
+    @Override
+    public void tag(int row, String name) {
+        int column = tagColumn(name);
+        if (column != EXCLUDED) {
+            tagValues.get(column)[row] = true;
+        }
+    }
+
+    /**
+     * Copy the rows of a chunk of the result into these columns
+     *
+     * @param chunk - the columns of the chunk
+     * @param offset - the row of these columns at which the chunk starts
+     */
+    public void merge(ChannelColumns chunk, int offset) {
+        System.arraycopy(chunk.names, 0, names, offset, chunk.size);
+        System.arraycopy(chunk.owners, 0, owners, offset, chunk.size);
+        for (int i = 0; i < chunk.propertyNames.size(); i++) {
+            int column = propertyColumn(chunk.propertyNames.get(i));
+            System.arraycopy(chunk.propertyValues.get(i), 0, propertyValues.get(column), offset, chunk.size);
+        }
+        for (int i = 0; i < chunk.tagNames.size(); i++) {
+            int column = tagColumn(chunk.tagNames.get(i));
+            System.arraycopy(chunk.tagValues.get(i), 0, tagValues.get(column), offset, chunk.size);
+        }
+    }
+
+    /**
+     * Concatenate the results of the queries of a batch, the columns of the
+     * properties and tags are the union of the columns of the results and a
+     * queryIndex column holds the position of the query of each row.
+     *
+     * @param results - the result of each query of the batch
+     * @return the columns of the batch result
+     */
+    public static ChannelColumns concat(List<ChannelColumns> results) {
+        int size = 0;
+        for (ChannelColumns result : results) {
+            size += result.size();
+        }
+        // the results are already filtered by the filter of their query
+        ChannelColumns columns = new ChannelColumns(size, Collections.emptySet());
+        columns.queryIndex = new int[size];
+        int offset = 0;
+        for (int i = 0; i < results.size(); i++) {
+            ChannelColumns result = results.get(i);
+            columns.merge(result, offset);
+            Arrays.fill(columns.queryIndex, offset, offset + result.size(), i);
+            offset += result.size();
+        }
+        return columns;
+    }
+
+    /**
+     * @param row - the row
+     * @return the channel name of the row
+     */
+    String getName(int row) {
+        return names[row];
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create the NTTable with a channelName and owner column followed by a
+     * string column per property and a boolean column per tag. The table of
+     * a batch result has an int queryIndex column after the owner column.
+     *
+     * The NTTable shares the column arrays, the columns must not be modified
+     * once the table is created. The structure of the table is shared with
+     * the previous results with the same columns.
+     *
+     * @return the NTTable
+     */
+    public NTTable createTable() {
+        return createTable(Format.DENSE);
+    }
+
+    /**
+     * Create the NTTable of the result in the requested format.
+     *
+     * In the sparse format the fields of the property and tag columns are
+     * named property&lt;i&gt; and tag&lt;i&gt; and labelled with the property or
+     * tag name. A property set on few rows is encoded as its values, in the
+     * string column property&lt;i&gt;, and the rows of the values, in the int
+     * column property&lt;i&gt;Rows. A tag set on few rows is encoded as the int
+     * column of the rows it is set on. These columns do not have a value per
+     * row and are the columns of the {@link #SPARSE} structure next to the
+     * value of the table, so the value only holds columns of the table length.
+     *
+     * The dictionary format also encodes the remaining properties whose
+     * distinct values are at most a quarter of their values as the int column
+     * property&lt;i&gt;Codes of the index of the value of each row in the
+     * distinct values, -1 if the property is not set on the row, and the
+     * string column property&lt;i&gt; of the distinct values, a column of the
+     * {@link #DICTIONARIES} structure next to the value of the table.
+     *
+     * The other columns are dense.
+     *
+     * @param format - the format of the table
+     * @return the NTTable
+     */
+    public NTTable createTable(Format format) {
+        return createTable(format, null);
+    }
+
+    /**
+     * Create the NTTable of the result in the requested format with a
+     * descriptor
+     *
+     * @param format - the format of the table
+     * @param descriptor - the descriptor of the table, none if null
+     * @return the NTTable
+     */
+    public NTTable createTable(Format format, String descriptor) {
+        List<Column> columns = new ArrayList<>();
+        columns.add(new Column("channelName", ScalarType.pvString));
+        columns.add(new Column("owner", ScalarType.pvString));
+        List<Object> data = new ArrayList<>();
+        data.add(names);
+        data.add(owners);
+        if (queryIndex != null) {
+            columns.add(new Column("queryIndex", ScalarType.pvInt));
+            data.add(queryIndex);
+        }
+
+        for (int i = 0; i < propertyNames.size(); i++) {
+            String name = propertyNames.get(i);
+            String[] values = propertyValues.get(i);
+            if (format == Format.DENSE) {
+                columns.add(new Column(name, ScalarType.pvString));
+                data.add(values);
+                continue;
+            }
+            int count = 0;
+            for (String value : values) {
+                if (value != null) {
+                    count++;
+                }
+            }
+            if (isSparse(count)) {
+                String[] setValues = new String[count];
+                int[] rows = new int[count];
+                for (int row = 0, j = 0; j < count; row++) {
+                    if (values[row] != null) {
+                        setValues[j] = values[row];
+                        rows[j++] = row;
+                    }
+                }
+                columns.add(new Column("property" + i, ScalarType.pvString, name, SPARSE));
+                columns.add(new Column("property" + i + "Rows", ScalarType.pvInt, name, SPARSE));
+                data.add(setValues);
+                data.add(rows);
+                continue;
+            }
+            if (format == Format.DICTIONARY) {
+                int[] codes = new int[size];
+                List<String> dictionary = encode(values, count / 4, codes);
+                if (dictionary != null) {
+                    columns.add(new Column("property" + i + "Codes", ScalarType.pvInt, name));
+                    columns.add(new Column("property" + i, ScalarType.pvString, name, DICTIONARIES));
+                    data.add(codes);
+                    data.add(dictionary.toArray(new String[dictionary.size()]));
+                    continue;
+                }
+            }
+            columns.add(new Column("property" + i, ScalarType.pvString, name));
+            data.add(values);
+        }
+
+        for (int i = 0; i < tagNames.size(); i++) {
+            String name = tagNames.get(i);
+            boolean[] values = tagValues.get(i);
+            if (format == Format.DENSE) {
+                columns.add(new Column(name, ScalarType.pvBoolean));
+                data.add(values);
+                continue;
+            }
+            int count = 0;
+            for (boolean value : values) {
+                if (value) {
+                    count++;
+                }
+            }
+            if (isSparse(count)) {
+                int[] rows = new int[count];
+                for (int row = 0, j = 0; j < count; row++) {
+                    if (values[row]) {
+                        rows[j++] = row;
+                    }
+                }
+                columns.add(new Column("tag" + i, ScalarType.pvInt, name, SPARSE));
+                data.add(rows);
+            } else {
+                columns.add(new Column("tag" + i, ScalarType.pvBoolean, name));
+                data.add(values);
+            }
+        }
+
+        NTTable ntTable = structures.createTable(columns, descriptor);
+        PVStructure pvStructure = ntTable.getPVStructure();
+        for (int i = 0; i < columns.size(); i++) {
+            PVField field = pvStructure.getSubField(columns.get(i).getPath());
+            Object values = data.get(i);
+            if (values instanceof String[]) {
+                ((PVStringArray) field).shareData((String[]) values);
+            } else if (values instanceof boolean[]) {
+                ((PVBooleanArray) field).shareData((boolean[]) values);
+            } else {
+                ((PVIntArray) field).shareData((int[]) values);
+            }
+        }
+        return ntTable;
+    }
+
+    /**
+     * Dictionary encode the values of a column
+     *
+     * @param values - the values of the column
+     * @param maxSize - the maximum size of the dictionary
+     * @param codes - the index of each value in the dictionary, -1 if not set
+     * @return the distinct values or null if there are more than maxSize
+     */
+    private static List<String> encode(String[] values, int maxSize, int[] codes) {
+        Map<String, Integer> index = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        for (int row = 0; row < values.length; row++) {
+            if (values[row] == null) {
+                codes[row] = -1;
+                continue;
+            }
+            Integer code = index.get(values[row]);
+            if (code == null) {
+                if (dictionary.size() == maxSize) {
+                    return null;
+                }
+                code = dictionary.size();
+                dictionary.add(values[row]);
+                index.put(values[row], code);
+            }
+            codes[row] = code;
+        }
+        return dictionary;
+    }
+
+    /**
+     * A missing value of a dense column takes a byte on the wire and a row
+     * index four, the column is sparse when the row indices are smaller
+     */
+    private boolean isSparse(int count) {
+        return count * 4L < size;
+    }
+}
@@ -0,0 +1,86 @@
+package org.epics.channelfinder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * The position of a page in a result sorted by channel name, the name and the
+ * elastic uid of the last channel of the page.
+ *
+ * The cursor is passed to clients as an opaque url safe token, the next page
+ * resumes after the position with a range filter so every page costs the same
+ * regardless of its depth.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelCursor {
+
+    private static final char SEPARATOR = '\0';
+
+    private final String name;
+    private final String uid;
+
+    /**
+     * @param name - the name of the last channel of the page
+     * @param uid - the elastic uid of the last channel of the page, to break
+     *            ties between channels with the same name
+     */
+    public ChannelCursor(String name, String uid) {
+        this.name = name;
+        this.uid = uid;
+    }
+
+    /**
+     * @param hit - a search hit
+     * @return the elastic uid of the hit
+     */
+    public static String uid(SearchHit hit) {
+        return hit.getType() + "#" + hit.getId();
+    }
+
+    /**
+     * Decode a cursor token
+     *
+     * @param token - the token of the cursor
+     * @return the cursor
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static ChannelCursor decode(String token) {
+        String value = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+        int separator = value.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("invalid cursor: " + token);
+        }
+        return new ChannelCursor(value.substring(0, separator), value.substring(separator + 1));
+    }
+
+    /**
+     * @return the url safe token of the cursor
+     */
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((name + SEPARATOR + uid).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the name of the last channel of the page
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the elastic uid of the last channel of the page
+     */
+    public String getUid() {
+        return uid;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
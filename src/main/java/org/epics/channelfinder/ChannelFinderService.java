@@ -1,45 +1,61 @@
 package org.epics.channelfinder;
 
-import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
-import static org.elasticsearch.index.query.QueryBuilders.disMaxQuery;
-import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
-import static org.elasticsearch.index.query.QueryBuilders.nestedQuery;
-import static org.elasticsearch.index.query.QueryBuilders.wildcardQuery;
-
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.DisMaxQueryBuilder;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.indexing.IndexingStats;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.nested.Nested;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.epics.nt.NTTable;
-import org.epics.nt.NTTableBuilder;
+import org.epics.nt.NTScalar;
 import org.epics.nt.NTURI;
 import org.epics.pvaccess.PVAException;
+import org.epics.pvaccess.server.rpc.RPCRequestException;
 import org.epics.pvaccess.server.rpc.RPCResponseCallback;
 import org.epics.pvaccess.server.rpc.RPCServer;
+import org.epics.pvaccess.server.rpc.RPCService;
 import org.epics.pvaccess.server.rpc.RPCServiceAsync;
 import org.epics.pvdata.factory.StatusFactory;
-import org.epics.pvdata.pv.PVBooleanArray;
+import org.epics.pvdata.pv.PVBoolean;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVLong;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVScalarArray;
 import org.epics.pvdata.pv.PVString;
 import org.epics.pvdata.pv.PVStringArray;
 import org.epics.pvdata.pv.PVStructure;
 import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Status.StatusType;
+import org.epics.pvdata.pv.StringArrayData;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -53,222 +69,1032 @@ public class ChannelFinderService {
     private static Logger log = Logger.getLogger(ChannelFinderService.class.getCanonicalName());
 
     public final static String SERVICE_DESC = "cfService:query";
+    public final static String INVALIDATE_SERVICE_DESC = "cfService:invalidate";
+    public final static String STREAM_SERVICE_DESC = "cfService:stream";
 
     public static final ObjectMapper channelMapper = new ObjectMapper()
             .addMixIn(XmlProperty.class, OnlyXmlProperty.class).addMixIn(XmlTag.class, OnlyXmlTag.class);
 
-    private static class ChannelFinderServiceImpl implements RPCServiceAsync {
+    static class ChannelFinderServiceImpl implements RPCServiceAsync {
+
+        private static final Settings settings = ElasticSearchClientManager.getSettings();
+
+        /**
+         * queries returning more channels are retrieved with an elastic scroll,
+         * deeper pages are rejected
+         */
+        private static final int scrollThreshold = settings.getAsInt("channelfinder.scroll.threshold",
+                ChannelQuery.DEFAULT_SIZE);
+        private static final int scrollBatchSize = settings.getAsInt("channelfinder.scroll.batch_size", 5000);
+        private static final TimeValue scrollKeepAlive = settings.getAsTime("channelfinder.scroll.keep_alive",
+                TimeValue.timeValueSeconds(60));
+
+        private static final ChannelFinderServiceImpl instance = new ChannelFinderServiceImpl(
+                DispatchMode.valueOf(settings.get("channelfinder.dispatch.mode", "pool").trim().toUpperCase()));
+
+        private final DispatchMode dispatchMode;
+        private final int workers = settings.getAsInt("channelfinder.dispatch.workers", 50);
+        private final int queueSize = settings.getAsInt("channelfinder.dispatch.queue_size", 1000);
+
+        private final ExecutorService executor;
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "cfService-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final ServiceMetrics metrics = new ServiceMetrics();
+
+        private final long slowQueryThreshold = settings
+                .getAsTime("channelfinder.slow_query_threshold", TimeValue.timeValueSeconds(1)).nanos();
+
+        private final ForkJoinPool decodePool = new ForkJoinPool(
+                settings.getAsInt("channelfinder.decode.parallelism", Runtime.getRuntime().availableProcessors()));
+        private final ChannelHitDecoder decoder = new ChannelHitDecoder(decodePool,
+                settings.getAsInt("channelfinder.decode.chunk_size", 1000));
 
-        private static final ChannelFinderServiceImpl instance = new ChannelFinderServiceImpl();
+        private final boolean coalesce = settings.getAsBoolean("channelfinder.coalesce", true);
+        private final RequestCoalescer coalescer = new RequestCoalescer();
 
-        private ChannelFinderServiceImpl() {
+        private final int streamPageSize = settings.getAsInt("channelfinder.stream.page_size", 2000);
+        private final TimeValue streamKeepAlive = settings.getAsTime("channelfinder.stream.keep_alive",
+                TimeValue.timeValueSeconds(60));
+        private final StreamSessions<StreamState> streams = new StreamSessions<>(
+                settings.getAsInt("channelfinder.stream.max_sessions", 100), streamKeepAlive.millis(),
+                TimeUnit.MILLISECONDS);
+
+        private final QueryResultCache<PVStructure> cache = createCache();
+        private final ChannelStore store = createStore();
+        private long indexOperations = -1;
+        private boolean indexChanged = false;
+
+        /**
+         * Create a service instance which dispatches requests with the given mode
+         * 
+         * @param dispatchMode - the requested dispatch mode
+         */
+        ChannelFinderServiceImpl(DispatchMode dispatchMode) {
             log.info("start");
+            switch (dispatchMode) {
+            case VIRTUAL:
+                ExecutorService virtualExecutor = createVirtualThreadExecutor();
+                if (virtualExecutor != null) {
+                    executor = virtualExecutor;
+                    break;
+                }
+                log.warning("virtual threads are not supported by this jvm, falling back to the worker pool");
+                dispatchMode = DispatchMode.POOL;
+            case POOL:
+                executor = createPool(workers, queueSize);
+                break;
+            default:
+                executor = null;
+                break;
+            }
+            this.dispatchMode = dispatchMode;
+            log.info("dispatch mode: " + dispatchMode + " workers: " + workers + " queue size: " + queueSize);
+            long interval = settings.getAsTime("channelfinder.metrics.interval", TimeValue.timeValueSeconds(60))
+                    .millis();
+            scheduler.scheduleAtFixedRate(() -> {
+                log.info(SERVICE_DESC + " " + metrics);
+                metrics.reset();
+                if (cache != null) {
+                    log.info(SERVICE_DESC + " " + cache);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+            scheduler.scheduleWithFixedDelay(this::expireStreams, streamKeepAlive.millis(), streamKeepAlive.millis(),
+                    TimeUnit.MILLISECONDS);
+            if (store != null) {
+                long refreshInterval = settings
+                        .getAsTime("channelfinder.store.refresh_interval", TimeValue.timeValueSeconds(5)).millis();
+                store.start(refreshInterval, TimeUnit.MILLISECONDS, () -> invalidateCache());
+            }
+            if (cache != null) {
+                long checkInterval = settings
+                        .getAsTime("channelfinder.cache.index_check_interval", TimeValue.timeValueSeconds(1)).millis();
+                scheduler.scheduleWithFixedDelay(this::checkIndex, checkInterval, checkInterval,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private static QueryResultCache<PVStructure> createCache() {
+            if (!settings.getAsBoolean("channelfinder.cache.enabled", false)) {
+                return null;
+            }
+            long maxBytes = settings.getAsBytesSize("channelfinder.cache.max_size", new ByteSizeValue(256, ByteSizeUnit.MB))
+                    .bytes();
+            long ttl = settings.getAsTime("channelfinder.cache.ttl", TimeValue.timeValueSeconds(60)).millis();
+            log.info("query cache max size: " + maxBytes + " bytes ttl: " + ttl + " ms");
+            return new QueryResultCache<>(maxBytes, ttl, TimeUnit.MILLISECONDS);
+        }
+
+        private static ChannelStore createStore() {
+            if (!settings.getAsBoolean("channelfinder.store.enabled", false)) {
+                return null;
+            }
+            long overlap = settings.getAsTime("channelfinder.store.refresh_overlap", TimeValue.timeValueSeconds(5))
+                    .millis();
+            int mergeThreshold = settings.getAsInt("channelfinder.store.merge_threshold", 10000);
+            long rebuildInterval = settings
+                    .getAsTime("channelfinder.store.rebuild_interval", TimeValue.timeValueMinutes(5)).millis();
+            log.info("channel store enabled, refresh overlap: " + overlap + " ms merge threshold: " + mergeThreshold
+                    + " rebuild interval: " + rebuildInterval + " ms");
+            return new ChannelStore(scrollBatchSize, scrollKeepAlive, overlap, mergeThreshold, rebuildInterval);
+        }
+
+        /**
+         * Invalidate the cache when documents in the channelfinder index have
+         * been indexed or deleted since the last check. Since the changes only
+         * become visible to searches after the next index refresh, the cache is
+         * invalidated once more on the check following a change.
+         */
+        private void checkIndex() {
+            try {
+                IndexingStats.Stats stats = ElasticSearchClientManager.getClient().admin().indices()
+                        .prepareStats("channelfinder").clear().setIndexing(true).execute().actionGet()
+                        .getPrimaries().getIndexing().getTotal();
+                long operations = stats.getIndexCount() + stats.getDeleteCount();
+                if (operations != indexOperations || indexChanged) {
+                    indexChanged = indexOperations >= 0 && operations != indexOperations;
+                    indexOperations = operations;
+                    int removed = cache.invalidate();
+                    log.fine("channelfinder index changed, invalidated " + removed + " cached results");
+                }
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Failed to check the channelfinder index for changes", e);
+            }
+        }
+
+        /**
+         * Remove all the cached query results
+         * 
+         * @return the number of results removed
+         */
+        int invalidateCache() {
+            return cache != null ? cache.invalidate() : 0;
+        }
+
+        /**
+         * Estimate the memory used by a query result
+         * 
+         * @param result - the NTTable result
+         * @return the estimated size in bytes
+         */
+        private static long estimateSize(PVStructure result) {
+            if (!NTTable.isCompatible(result)) {
+                // the NTScalar results of the count and exists queries
+                return 64;
+            }
+            NTTable table = NTTable.wrap(result);
+            long bytes = 0;
+            for (String name : table.getColumnNames()) {
+                bytes += estimateSize(table.getColumn(name));
+            }
+            for (String name : Arrays.asList(ChannelColumns.SPARSE, ChannelColumns.DICTIONARIES)) {
+                PVStructure structure = result.getSubField(PVStructure.class, name);
+                if (structure != null) {
+                    for (PVField column : structure.getStructureField("value").getPVFields()) {
+                        bytes += estimateSize((PVScalarArray) column);
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        private static long estimateSize(PVScalarArray column) {
+            if (!(column instanceof PVStringArray)) {
+                return column.getLength();
+            }
+            long bytes = 0;
+            StringArrayData data = new StringArrayData();
+            ((PVStringArray) column).get(0, column.getLength(), data);
+            for (int i = 0; i < column.getLength(); i++) {
+                String value = data.data[data.offset + i];
+                bytes += value == null ? 8 : 48 + 2 * value.length();
+            }
+            return bytes;
+        }
+
+        /**
+         * The state of a streamed result between two pages
+         */
+        private static class StreamState {
+            private final ChannelQuery query;
+            private final String scrollId;
+            private final long sent;
+
+            private StreamState(ChannelQuery query, String scrollId, long sent) {
+                this.query = query;
+                this.scrollId = scrollId;
+                this.sent = sent;
+            }
+        }
+
+        /**
+         * Create the next page of a streamed result.
+         * 
+         * A request without a _session starts a stream of all the channels
+         * matching the query, _size is ignored as the pages have the
+         * configured size and _from is ignored. Only channel queries
+         * can be streamed, _count, _exists, _facet and _cursor are rejected.
+         * Each page is an
+         * NTTable of at most channelfinder.stream.page_size channels whose
+         * descriptor is the _session of the request for the next page, the
+         * descriptor of the last page is empty. The pages are read from an
+         * elastic scroll, so only the page being created is held in memory and
+         * the client controls the rate at which the pages are created.
+         * 
+         * @param args - the NTURI request
+         * @return the NTTable of the page
+         * @throws RPCRequestException if the query can not be parsed or is not
+         *             a channel query, the session is unknown or expired or
+         *             the page could not be created
+         */
+        PVStructure stream(PVStructure args) throws RPCRequestException {
+            PVString session = NTURI.wrap(args).getQueryField(PVString.class, "_session");
+            TransportClient client = ElasticSearchClientManager.getClient();
+            String token;
+            StreamState state;
+            if (session != null && !session.get().isEmpty()) {
+                token = session.get();
+                state = streams.take(token);
+                if (state == null) {
+                    throw new RPCRequestException(StatusType.ERROR, "unknown or expired stream session " + token);
+                }
+            } else {
+                ChannelQuery query;
+                try {
+                    query = ChannelQuery.of(args);
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Failed to parse request " + args + " for : " + STREAM_SERVICE_DESC, e);
+                    throw new RPCRequestException(StatusType.ERROR, "Failed to parse the query: " + e.getMessage());
+                }
+                if (query.getMode() != ChannelQuery.Mode.CHANNELS || query.isPaged()) {
+                    throw new RPCRequestException(StatusType.ERROR,
+                            "only channel queries without a _cursor can be streamed: " + query);
+                }
+                token = streams.open();
+                if (token == null) {
+                    throw new RPCRequestException(StatusType.ERROR,
+                            STREAM_SERVICE_DESC + " is busy, too many streams are open");
+                }
+                state = new StreamState(query, null, 0);
+            }
+            String scrollId = state.scrollId;
+            try {
+                SearchResponse response;
+                if (scrollId == null) {
+                    SearchRequestBuilder builder = client.prepareSearch("channelfinder")
+                            .setQuery(QueryCompiler.compile(state.query)).setSize(streamPageSize)
+                            .setFetchSource(QueryCompiler.sourceIncludes(state.query), null)
+                            .setScroll(streamKeepAlive);
+                    state.query.getSortField().ifPresent((s) -> {
+                        builder.addSort(SortBuilders.fieldSort(s));
+                    });
+                    response = builder.get();
+                } else {
+                    response = client.prepareSearchScroll(scrollId).setScroll(streamKeepAlive).get();
+                }
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().hits();
+                long sent = state.sent + hits.length;
+                boolean end = hits.length == 0 || sent >= response.getHits().getTotalHits();
+
+                ChannelColumns columns = decoder.decode(hits, state.query.getFilter());
+                NTTable page = columns.createTable(state.query.getFormat(), end ? "" : token);
+                if (end) {
+                    clearScroll(scrollId);
+                    streams.close();
+                } else {
+                    streams.resume(token, new StreamState(state.query, scrollId, sent));
+                }
+                return page.getPVStructure();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Failed to create the next page of " + state.query + " for : "
+                        + STREAM_SERVICE_DESC, e);
+                clearScroll(scrollId);
+                streams.close();
+                throw new RPCRequestException(StatusType.ERROR, "Failed to create the next page: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Release the elastic scrolls of the streams which have not been resumed
+         * within the keep alive
+         */
+        private void expireStreams() {
+            for (StreamState state : streams.expire()) {
+                log.fine("stream " + state.query + " expired");
+                clearScroll(state.scrollId);
+            }
+        }
+
+        private static void clearScroll(String scrollId) {
+            if (scrollId == null) {
+                return;
+            }
+            try {
+                ElasticSearchClientManager.getClient().prepareClearScroll().addScrollId(scrollId).get();
+            } catch (Exception e) {
+                log.log(Level.FINE, "Failed to clear the scroll " + scrollId, e);
+            }
         }
 
         public static ChannelFinderServiceImpl getInstance() {
             return instance;
         }
 
-        private final ExecutorService pool = Executors.newScheduledThreadPool(50);
+        /**
+         * The modes in which a request can be dispatched
+         */
+        enum DispatchMode {
+            /** the query is executed on the pvAccess server thread */
+            INLINE,
+            /** the query is executed on a bounded pool of worker threads */
+            POOL,
+            /**
+             * the search is started without blocking and the result is created
+             * and returned from the elastic completion callback
+             */
+            ASYNC,
+            /**
+             * each query is executed on its own virtual thread, requires a jvm
+             * with virtual thread support (java 21 or above)
+             */
+            VIRTUAL
+        }
+
+        private static ThreadPoolExecutor createPool(int workers, int queueSize) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), (r) -> {
+                        return new Thread(r, "cfService-worker-" + threadCount.incrementAndGet());
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        /**
+         * The service is built for java 8, so the virtual thread executor is
+         * looked up reflectively when running on a newer jvm.
+         * 
+         * @return a thread per task executor using virtual threads, or null if
+         *         the jvm does not support them
+         */
+        private static ExecutorService createVirtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
 
         @Override
         public void request(PVStructure args, RPCResponseCallback call) {
             log.fine(args.toString());
-//            pool.execute(new HandlerQuery(args, call));
-            HandlerQuery query = new HandlerQuery(args, call);
-            query.run();
+            ChannelQuery query = null;
+            ChannelBatch batch = null;
+            try {
+                if (ChannelBatch.isBatch(args)) {
+                    batch = ChannelBatch.of(args);
+                } else {
+                    query = ChannelQuery.of(args);
+                }
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Failed to parse request " + args + " for : " + SERVICE_DESC, e);
+                call.requestDone(StatusFactory.getStatusCreate().createStatus(StatusType.ERROR,
+                        "Failed to parse the query: " + e.getMessage(), e), null);
+                return;
+            }
+            String key = batch != null ? batch.toString() : query.toString();
+            RPCResponseCallback done = call;
+            if (cache != null) {
+                PVStructure cached = cache.get(key);
+                if (cached != null) {
+                    log.fine("returning the cached result for " + key);
+                    call.requestDone(StatusFactory.getStatusCreate().getStatusOK(), cached);
+                    return;
+                }
+            }
+            if (coalesce) {
+                if (!coalescer.join(key, call)) {
+                    metrics.recordCoalesced();
+                    log.fine("joined the in flight request for " + key);
+                    return;
+                }
+                done = (status, result) -> coalescer.complete(key, status, result);
+            }
+            if (cache != null) {
+                final long generation = cache.generation();
+                final RPCResponseCallback next = done;
+                done = (status, result) -> {
+                    if (status.isSuccess() && result != null) {
+                        cache.put(key, result, estimateSize(result), generation);
+                    }
+                    next.requestDone(status, result);
+                };
+            }
+            boolean async = dispatchMode == DispatchMode.ASYNC;
+            if (batch != null) {
+                dispatch(SERVICE_DESC, args,
+                        new HandlerBatch(args, batch, done, metrics, decoder, store, slowQueryThreshold, async), done);
+            } else {
+                dispatch(SERVICE_DESC, args,
+                        new HandlerQuery(args, query, done, metrics, decoder, store, slowQueryThreshold, async), done);
+            }
+        }
+
+        /**
+         * Create the next page of a streamed result on the executor of the
+         * queries, so the pages count against the limits of the pool and of
+         * the request queue, see {@link #stream(PVStructure)}
+         *
+         * @param args - the NTURI request
+         * @param call - the callback to complete with the page
+         */
+        void stream(PVStructure args, RPCResponseCallback call) {
+            dispatch(STREAM_SERVICE_DESC, args, () -> {
+                try {
+                    call.requestDone(StatusFactory.getStatusCreate().getStatusOK(), stream(args));
+                } catch (RPCRequestException e) {
+                    call.requestDone(StatusFactory.getStatusCreate().createStatus(StatusType.ERROR,
+                            e.getMessage(), e), null);
+                }
+            }, call);
+        }
+
+        private void dispatch(String service, PVStructure args, Runnable query, RPCResponseCallback call) {
+            switch (dispatchMode) {
+            case POOL:
+            case VIRTUAL:
+                try {
+                    executor.execute(query);
+                } catch (RejectedExecutionException e) {
+                    metrics.recordRejected();
+                    log.warning("Rejected request " + args + " for : " + service + ", the request queue is full");
+                    call.requestDone(StatusFactory.getStatusCreate().createStatus(StatusType.ERROR,
+                            service + " is busy, the request queue is full", null), null);
+                }
+                break;
+            case ASYNC:
+            case INLINE:
+            default:
+                query.run();
+                break;
+            }
+        }
+
+        /**
+         * Create the elastic search request for a query, the query is compiled
+         * to non scoring filters see {@link QueryCompiler}
+         * 
+         * @param query - the canonical query
+         * @return the search request for the query
+         */
+        private static SearchRequestBuilder prepareSearch(ChannelQuery query) {
+            TransportClient client = ElasticSearchClientManager.getClient();
+
+            SearchRequestBuilder builder = client.prepareSearch("channelfinder")
+                    .setQuery(QueryCompiler.compile(query)).setSize(query.getSize())
+                    .setFetchSource(QueryCompiler.sourceIncludes(query), null);
+            if (query.getFrom() >= 0) {
+                builder.setFrom(query.getFrom());
+            }
+
+            if (query.getMode() != ChannelQuery.Mode.CHANNELS) {
+                return builder;
+            }
+            query.getSortField().ifPresent((s) -> {
+                builder.addSort(SortBuilders.fieldSort(s));
+            });
+            if (query.isPaged()) {
+                // the uid breaks the ties between channels with the same name
+                builder.addSort(SortBuilders.fieldSort("_uid"));
+            }
+            return builder;
         }
 
         private static class HandlerQuery implements Runnable {
 
             private final RPCResponseCallback callback;
             private final PVStructure args;
+            private final ChannelQuery query;
+            private final ServiceMetrics metrics;
+            private final ChannelHitDecoder decoder;
+            private final ChannelStore store;
+            private final long slowQueryThreshold;
+            private final boolean async;
+            private final long created = System.nanoTime();
+            private long started;
 
-            public HandlerQuery(PVStructure args, RPCResponseCallback callback) {
+            private final Set<String> filteredColumns;
+
+            /**
+             * @param args - the NTURI request
+             * @param query - the canonical query of the request
+             * @param callback - the callback to complete with the result
+             * @param metrics - the service metrics to update
+             * @param decoder - the decoder of the search hits
+             * @param store - the replica answering the query once it is
+             *            loaded, null if the query is always answered by
+             *            elastic
+             * @param slowQueryThreshold - queries taking longer than this, in
+             *            nanoseconds, are logged
+             * @param async - if true the search is started with a listener and the
+             *            result is created and returned from the elastic
+             *            completion callback instead of blocking this thread
+             */
+            public HandlerQuery(PVStructure args, ChannelQuery query, RPCResponseCallback callback,
+                    ServiceMetrics metrics, ChannelHitDecoder decoder, ChannelStore store, long slowQueryThreshold,
+                    boolean async) {
                 this.callback = callback;
                 this.args = args;
+                this.query = query;
+                this.metrics = metrics;
+                this.decoder = decoder;
+                this.store = store;
+                this.slowQueryThreshold = slowQueryThreshold;
+                this.async = async;
+                this.filteredColumns = query.getFilter();
             }
 
             @Override
             public void run() {
-
-                NTURI uri = NTURI.wrap(args);
+                started = System.nanoTime();
+                long queueWait = started - created;
+                metrics.recordQueueWait(queueWait);
+                log.fine("queue wait " + TimeUnit.NANOSECONDS.toMicros(queueWait) + " us");
                 log.info(Thread.currentThread().getName().toString());
 
-                String[] query = uri.getQueryNames();
+                try {
+                    if (query.getMode() == ChannelQuery.Mode.CHANNELS && query.getFrom() > 0
+                            && (long) query.getFrom() + query.getSize() > scrollThreshold) {
+                        // every shard would sort and send all the skipped hits
+                        throw new IllegalArgumentException("the page _from=" + query.getFrom() + " _size="
+                                + query.getSize() + " is deeper than " + scrollThreshold
+                                + " channels, page through the result with _cursor");
+                    }
+                    ChannelStore.Snapshot snapshot = store != null ? store.getSnapshot() : null;
+                    if (snapshot != null) {
+                        query(snapshot);
+                        return;
+                    }
+                    SearchRequestBuilder builder = prepareSearch(query);
+                    switch (query.getMode()) {
+                    case COUNT:
+                    case EXISTS:
+                        // only the number of matches is needed, no hits are fetched
+                        builder.setFrom(0).setSize(0);
+                        if (query.getMode() == ChannelQuery.Mode.EXISTS) {
+                            builder.setTerminateAfter(1);
+                        }
+                        execute(builder, this::completeCount);
+                        break;
+                    case FACETS:
+                        builder.setFrom(0).setSize(0);
+                        QueryCompiler.compileFacets(query).forEach(builder::addAggregation);
+                        execute(builder, this::completeFacets);
+                        break;
+                    case CHANNELS:
+                    default:
+                        if (query.getFrom() == 0 && query.getSize() > scrollThreshold) {
+                            scroll(builder);
+                        } else {
+                            execute(builder, this::complete);
+                        }
+                        break;
+                    }
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
+
+            /**
+             * Answer the query from a snapshot of the channel store
+             * 
+             * @param snapshot - the snapshot of the replicated channels
+             */
+            private void query(ChannelStore.Snapshot snapshot) {
+                switch (query.getMode()) {
+                case COUNT:
+                    completeCount(snapshot.match(query, Integer.MAX_VALUE).length);
+                    break;
+                case EXISTS:
+                    completeCount(snapshot.match(query, 1).length);
+                    break;
+                case FACETS:
+                    completeFacets(snapshot.facets(query.getFacets(), snapshot.match(query, Integer.MAX_VALUE)));
+                    break;
+                case CHANNELS:
+                default:
+                    int[] matches = snapshot.match(query, (int) Math.min(Integer.MAX_VALUE,
+                            (long) query.getFrom() + query.getSize()));
+                    ChannelColumns columns = snapshot.columns(matches, query.getFrom(), query.getSize(),
+                            filteredColumns);
+                    complete(columns, matches.length > 0 ? snapshot.getUid(matches[matches.length - 1]) : null);
+                    break;
+                }
+            }
+
+            /**
+             * Execute the search and complete the request with its response,
+             * from the elastic completion callback when async
+             */
+            private void execute(SearchRequestBuilder builder, Consumer<SearchResponse> complete) {
+                if (async) {
+                    builder.execute(new ActionListener<SearchResponse>() {
+
+                        @Override
+                        public void onResponse(SearchResponse qbResult) {
+                            complete.accept(qbResult);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            failed(e);
+                        }
+                    });
+                } else {
+                    complete.accept(builder.execute().actionGet());
+                }
+            }
+
+            /**
+             * Retrieve a large result, from its first channel, with an elastic
+             * scroll in batches instead of a single response holding all the
+             * hits. Each batch of hits is decoded as it arrives. Deep pages are
+             * not scrolled, the skipped hits would still be sorted and sent by
+             * elastic, they are requested with a _cursor.
+             * 
+             * @param builder - the search request for the query
+             */
+            private void scroll(SearchRequestBuilder builder) {
                 TransportClient client = ElasticSearchClientManager.getClient();
+                ScrollCollector collector = new ScrollCollector(decoder, filteredColumns, query.getSize());
+                builder.setFrom(0).setSize(scrollBatchSize).setScroll(scrollKeepAlive);
+                if (async) {
+                    builder.execute(new ActionListener<SearchResponse>() {
 
-                try {
-                    BoolQueryBuilder qb = boolQuery();
-                    int size = 10000;
-                    int from = 0;
-                    Optional<String> sortField = Optional.empty();
-                    final Set<String> filteredColumns = new HashSet<>();
-                    
-                    for (String parameter : query) {
-                        String value = uri.getQueryField(PVString.class, parameter).get();
-                        if (value != null && !value.isEmpty()) {
-                            switch (parameter) {
-                            case "_name":
-                                DisMaxQueryBuilder nameQuery = disMaxQuery();
-                                for (String pattern : value.trim().split("\\|")) {
-                                    nameQuery.add(wildcardQuery("name", pattern.trim()));
-                                }
-                                qb.must(nameQuery);
-                                break;
-                            case "_tag":
-                                for (String pattern1 : value.trim().split("\\&")) {
-                                    DisMaxQueryBuilder tagQuery = disMaxQuery();
-                                    for (String pattern2 : pattern1.trim().split("\\|")) {
-                                        tagQuery.add(wildcardQuery("tags.name", pattern2.trim()));
-                                    }
-                                    qb.must(nestedQuery("tags", tagQuery));
+                        @Override
+                        public void onResponse(SearchResponse response) {
+                            try {
+                                if (collector.add(response.getHits().hits())) {
+                                    client.prepareSearchScroll(response.getScrollId()).setScroll(scrollKeepAlive)
+                                            .execute(this);
+                                } else {
+                                    clearScroll(response.getScrollId());
+                                    complete(collector.columns(), collector.getLastUid());
                                 }
-                                break;
-                            case "_size":
-                                try {
-                                    size = Integer.valueOf(value.trim());
-                                    sortField = Optional.of("name");
-                                } catch (NumberFormatException e) {
-                                    log.warning("failed to parse the size: " + value);
-                                }
-                                break;
-                            case "_from":
-                                try {
-                                    from = Integer.valueOf(value.trim());
-                                    sortField = Optional.of("name");
-                                } catch (NumberFormatException e) {
-                                    log.warning("failed to parse the from: " + value);
-                                }
-                                break;
-                            case "_filter":
-                                try {
-                                    filteredColumns.addAll(Arrays.asList(value.trim().split(",")));
-                                } catch (NumberFormatException e) {
-                                    log.warning("failed to parse the from: " + value);
-                                }
-                                break;
-                            default:
-                                DisMaxQueryBuilder propertyQuery = disMaxQuery();
-                                for (String pattern : value.split("\\|")) {
-                                    propertyQuery.add(nestedQuery("properties",
-                                            boolQuery().must(matchQuery("properties.name", parameter.trim()))
-                                                    .must(wildcardQuery("properties.value", pattern.trim()))));
-                                }
-                                qb.must(propertyQuery);
-                                break;
+                            } catch (Exception e) {
+                                clearScroll(response.getScrollId());
+                                failed(e);
                             }
                         }
 
+                        @Override
+                        public void onFailure(Throwable e) {
+                            failed(e);
+                        }
+                    });
+                } else {
+                    SearchResponse response = builder.execute().actionGet();
+                    try {
+                        while (collector.add(response.getHits().hits())) {
+                            response = client.prepareSearchScroll(response.getScrollId()).setScroll(scrollKeepAlive)
+                                    .execute().actionGet();
+                        }
+                    } finally {
+                        clearScroll(response.getScrollId());
                     }
+                    complete(collector.columns(), collector.getLastUid());
+                }
+            }
+
+            /**
+             * Create the NTTable from the search result and complete the request
+             * 
+             * @param qbResult - the result of the search
+             */
+            private void complete(SearchResponse qbResult) {
+                try {
+                    SearchHit[] hits = qbResult.getHits().hits();
+                    complete(decoder.decode(hits, filteredColumns),
+                            hits.length > 0 ? ChannelCursor.uid(hits[hits.length - 1]) : null);
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
 
-                    SearchRequestBuilder builder = client.prepareSearch("channelfinder").setQuery(qb).setSize(size);
-                    if (from >= 0) {
-                        builder.setFrom(from);
+            /**
+             * Create the NTTable from the decoded result and complete the
+             * request. The descriptor of the page of a cursor paginated query
+             * is the cursor of the next page, empty for the last page.
+             * 
+             * @param columns - the columns of the result
+             * @param lastUid - the uid of the last channel of the result
+             */
+            private void complete(ChannelColumns columns, String lastUid) {
+                try {
+                    String next = null;
+                    if (query.isPaged()) {
+                        next = columns.size() == 0 || columns.size() < query.getSize() ? ""
+                                : new ChannelCursor(columns.getName(columns.size() - 1), lastUid).encode();
                     }
+                    NTTable ntTable = columns.createTable(query.getFormat(), next);
 
-                    sortField.ifPresent((s) -> {
-                        builder.addSort(SortBuilders.fieldSort(s));
-                    });
-                    final SearchResponse qbResult = builder.execute().actionGet();
-
-                    final int resultSize = qbResult.getHits().hits().length;
-                    final Map<String, List<String>> channelTable = new HashMap<String, List<String>>();
-                    final Map<String, List<String>> channelPropertyTable = new HashMap<String, List<String>>();
-                    final Map<String, boolean[]> channelTagTable = new HashMap<String, boolean[]>();
-
-                    AtomicInteger counter = new AtomicInteger(0);
-
-                    channelTable.put("channelName", Arrays.asList(new String[resultSize]));
-                    channelTable.put("owner", Arrays.asList(new String[resultSize]));
-
-                    qbResult.getHits().forEach(hit -> {
-                        try {
-                            XmlChannel ch = channelMapper.readValue(hit.source(), XmlChannel.class);
-
-                            int index = counter.getAndIncrement();
-
-                            channelTable.get("channelName").set(index, ch.getName());
-                            channelTable.get("owner").set(index, ch.getOwner());
-
-                            if (!filteredColumns.contains("ALL")) {
-                                ch.getTags().stream().filter((tag) -> {
-                                    return filteredColumns.isEmpty() || filteredColumns.contains(tag.getName());
-                                }).forEach(t -> {
-                                    if (!channelTagTable.containsKey(t.getName())) {
-                                        channelTagTable.put(t.getName(), new boolean[resultSize]);
-                                    }
-                                    channelTagTable.get(t.getName())[index] = true;
-                                });
-
-                                ch.getProperties().stream().filter((prop) -> {
-                                    return filteredColumns.isEmpty() || filteredColumns.contains(prop.getName());
-                                }).forEach(prop -> {
-                                    if (!channelPropertyTable.containsKey(prop.getName())) {
-                                        channelPropertyTable.put(prop.getName(), Arrays.asList(new String[resultSize]));
-                                    }
-                                    channelPropertyTable.get(prop.getName()).set(index, prop.getValue());
-                                });
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                    log.fine(ntTable.toString());
+                    logSlowQuery(columns.size());
+                    this.callback.requestDone(StatusFactory.getStatusCreate().getStatusOK(), ntTable.getPVStructure());
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
+
+            /**
+             * Create the NTScalar of the number of matches or of whether any
+             * channel matches and complete the request
+             * 
+             * @param qbResult - the result of the zero size search
+             */
+            private void completeCount(SearchResponse qbResult) {
+                completeCount(qbResult.getHits().getTotalHits());
+            }
+
+            /**
+             * Create the NTScalar of the number of matches or of whether any
+             * channel matches and complete the request
+             * 
+             * @param total - the number of matches
+             */
+            private void completeCount(long total) {
+                try {
+                    PVStructure result;
+                    if (query.getMode() == ChannelQuery.Mode.EXISTS) {
+                        NTScalar ntScalar = NTScalar.createBuilder().value(ScalarType.pvBoolean).create();
+                        ntScalar.getPVStructure().getSubField(PVBoolean.class, "value").put(total > 0);
+                        result = ntScalar.getPVStructure();
+                    } else {
+                        NTScalar ntScalar = NTScalar.createBuilder().value(ScalarType.pvLong).create();
+                        ntScalar.getPVStructure().getSubField(PVLong.class, "value").put(total);
+                        result = ntScalar.getPVStructure();
+                    }
+                    logSlowQuery(0);
+                    this.callback.requestDone(StatusFactory.getStatusCreate().getStatusOK(), result);
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
+
+            /**
+             * Create the NTTable of the facets, with a row of the facet, the
+             * value and the number of matching channels with the value per
+             * distinct value of each facet, and complete the request
+             * 
+             * @param qbResult - the result of the zero size search with the
+             *            facet aggregations
+             */
+            private void completeFacets(SearchResponse qbResult) {
+                try {
+                    List<Map<String, Long>> result = new ArrayList<>();
+                    for (int i = 0; i < query.getFacets().size(); i++) {
+                        Terms terms;
+                        if (query.getFacets().get(i).equals(ChannelQuery.TAG_FACET)) {
+                            terms = qbResult.getAggregations().get(QueryCompiler.facetName(i));
+                        } else {
+                            Nested nested = qbResult.getAggregations().get(QueryCompiler.facetName(i));
+                            Filter property = nested.getAggregations().get("property");
+                            terms = property.getAggregations().get("values");
                         }
-                    });
+                        Map<String, Long> counts = new LinkedHashMap<>();
+                        for (Terms.Bucket bucket : terms.getBuckets()) {
+                            counts.put(bucket.getKey(), bucket.getDocCount());
+                        }
+                        result.add(counts);
+                    }
+                    completeFacets(result);
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
 
-                    NTTableBuilder ntTableBuilder = NTTable.createBuilder();
-                    channelTable.keySet().forEach(name -> {
-                        ntTableBuilder.addColumn(name, ScalarType.pvString);
-                    });
-                    channelPropertyTable.keySet().forEach(name -> {
-                        ntTableBuilder.addColumn(name, ScalarType.pvString);
-                    });
-                    channelTagTable.keySet().forEach(name -> {
-                        ntTableBuilder.addColumn(name, ScalarType.pvBoolean);
-                    });
-                    NTTable ntTable = ntTableBuilder.create();
+            /**
+             * Create the NTTable of the facets and complete the request
+             * 
+             * @param result - the number of matching channels per value of
+             *            each facet of the query
+             */
+            private void completeFacets(List<Map<String, Long>> result) {
+                try {
+                    List<String> facets = new ArrayList<>();
+                    List<String> values = new ArrayList<>();
+                    List<Long> counts = new ArrayList<>();
+                    for (int i = 0; i < result.size(); i++) {
+                        for (Map.Entry<String, Long> count : result.get(i).entrySet()) {
+                            facets.add(query.getFacets().get(i));
+                            values.add(count.getKey());
+                            counts.add(count.getValue());
+                        }
+                    }
+                    NTTable ntTable = NTTable.createBuilder().addColumn("facet", ScalarType.pvString)
+                            .addColumn("value", ScalarType.pvString).addColumn("count", ScalarType.pvLong)
+                            .create();
+                    ntTable.getColumn(PVStringArray.class, "facet")
+                            .shareData(facets.toArray(new String[facets.size()]));
+                    ntTable.getColumn(PVStringArray.class, "value")
+                            .shareData(values.toArray(new String[values.size()]));
+                    ntTable.getColumn(PVLongArray.class, "count")
+                            .shareData(counts.stream().mapToLong(Long::longValue).toArray());
 
-                    channelTable.entrySet().stream().forEach(col -> {
-                        ntTable.getColumn(PVStringArray.class, col.getKey()).put(0, col.getValue().size(),
-                                col.getValue().stream().toArray(String[]::new), 0);
-                    });
+                    log.fine(ntTable.toString());
+                    logSlowQuery(facets.size());
+                    this.callback.requestDone(StatusFactory.getStatusCreate().getStatusOK(), ntTable.getPVStructure());
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
 
-                    channelPropertyTable.entrySet().stream().forEach(col -> {
-                        ntTable.getColumn(PVStringArray.class, col.getKey()).put(0, col.getValue().size(),
-                                col.getValue().stream().toArray(String[]::new), 0);
-                    });
+            private void logSlowQuery(int resultSize) {
+                long took = System.nanoTime() - started;
+                if (took > slowQueryThreshold) {
+                    log.warning("slow query [" + query.toFingerprintString() + "] " + query + " returned "
+                            + resultSize + " channels in " + TimeUnit.NANOSECONDS.toMillis(took) + " ms");
+                }
+            }
 
-                    channelTagTable.entrySet().stream().forEach(col -> {
-                        ntTable.getColumn(PVBooleanArray.class, col.getKey()).put(0, col.getValue().length,
-                                col.getValue(), 0);
-                    });
+            private void failed(Throwable e) {
+                log.log(Level.SEVERE, "Failed to complete request " + args + " for : " + SERVICE_DESC, e);
+                this.callback.requestDone(StatusFactory.getStatusCreate().createStatus(StatusType.ERROR,
+                        "Failed to complete the query: " + e.getMessage(), e), null);
+            }
+        }
+
+        /**
+         * Execute the queries of a batch request as one elastic multi search
+         * and return the channels of all the queries in one NTTable, see
+         * {@link ChannelBatch}
+         */
+        private static class HandlerBatch implements Runnable {
+
+            private final RPCResponseCallback callback;
+            private final PVStructure args;
+            private final ChannelBatch batch;
+            private final ServiceMetrics metrics;
+            private final ChannelHitDecoder decoder;
+            private final ChannelStore store;
+            private final long slowQueryThreshold;
+            private final boolean async;
+            private final long created = System.nanoTime();
+            private long started;
+
+            /**
+             * @param args - the batch request
+             * @param batch - the canonical queries of the request
+             * @param callback - the callback to complete with the result
+             * @param metrics - the service metrics to update
+             * @param decoder - the decoder of the search hits
+             * @param store - the replica answering the queries once it is
+             *            loaded, null if the queries are always answered by
+             *            elastic
+             * @param slowQueryThreshold - batches taking longer than this, in
+             *            nanoseconds, are logged
+             * @param async - if true the multi search is started with a
+             *            listener and the result is created and returned from
+             *            the elastic completion callback
+             */
+            public HandlerBatch(PVStructure args, ChannelBatch batch, RPCResponseCallback callback,
+                    ServiceMetrics metrics, ChannelHitDecoder decoder, ChannelStore store, long slowQueryThreshold,
+                    boolean async) {
+                this.callback = callback;
+                this.args = args;
+                this.batch = batch;
+                this.metrics = metrics;
+                this.decoder = decoder;
+                this.store = store;
+                this.slowQueryThreshold = slowQueryThreshold;
+                this.async = async;
+            }
+
+            @Override
+            public void run() {
+                started = System.nanoTime();
+                metrics.recordQueueWait(started - created);
+
+                try {
+                    ChannelStore.Snapshot snapshot = store != null ? store.getSnapshot() : null;
+                    if (snapshot != null) {
+                        List<ChannelColumns> results = new ArrayList<>();
+                        for (ChannelQuery query : batch.getQueries()) {
+                            int[] matches = snapshot.match(query,
+                                    (int) Math.min(Integer.MAX_VALUE, (long) query.getFrom() + query.getSize()));
+                            results.add(snapshot.columns(matches, query.getFrom(), query.getSize(), query.getFilter()));
+                        }
+                        complete(results);
+                        return;
+                    }
+                    MultiSearchRequestBuilder builder = ElasticSearchClientManager.getClient().prepareMultiSearch();
+                    for (ChannelQuery query : batch.getQueries()) {
+                        if ((long) query.getFrom() + query.getSize() > scrollThreshold) {
+                            throw new IllegalArgumentException("the result of " + query
+                                    + " is too large to be batched, at most " + scrollThreshold + " channels");
+                        }
+                        builder.add(prepareSearch(query));
+                    }
+                    if (async) {
+                        builder.execute(new ActionListener<MultiSearchResponse>() {
+
+                            @Override
+                            public void onResponse(MultiSearchResponse response) {
+                                complete(response);
+                            }
+
+                            @Override
+                            public void onFailure(Throwable e) {
+                                failed(e);
+                            }
+                        });
+                    } else {
+                        complete(builder.execute().actionGet());
+                    }
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
+
+            /**
+             * Decode the result of each query and complete the request
+             * 
+             * @param response - the result of the multi search
+             */
+            private void complete(MultiSearchResponse response) {
+                try {
+                    MultiSearchResponse.Item[] items = response.getResponses();
+                    List<ChannelColumns> results = new ArrayList<>(items.length);
+                    for (int i = 0; i < items.length; i++) {
+                        ChannelQuery query = batch.getQueries().get(i);
+                        if (items[i].isFailure()) {
+                            throw new IllegalStateException(
+                                    "the query " + query + " failed: " + items[i].getFailureMessage());
+                        }
+                        results.add(decoder.decode(items[i].getResponse().getHits().hits(), query.getFilter()));
+                    }
+                    complete(results);
+                } catch (Exception e) {
+                    failed(e);
+                }
+            }
+
+            /**
+             * Concatenate the results of the queries into one NTTable and
+             * complete the request
+             * 
+             * @param results - the result of each query of the batch
+             */
+            private void complete(List<ChannelColumns> results) {
+                try {
+                    ChannelColumns columns = ChannelColumns.concat(results);
+                    NTTable ntTable = columns.createTable(batch.getFormat());
 
                     log.fine(ntTable.toString());
+                    long took = System.nanoTime() - started;
+                    if (took > slowQueryThreshold) {
+                        log.warning("slow batch of " + results.size() + " queries " + batch + " returned "
+                                + columns.size() + " channels in " + TimeUnit.NANOSECONDS.toMillis(took) + " ms");
+                    }
                     this.callback.requestDone(StatusFactory.getStatusCreate().getStatusOK(), ntTable.getPVStructure());
                 } catch (Exception e) {
-                    log.log(Level.SEVERE, "Failed to complete request " + args + " for : " + SERVICE_DESC, e);
-                    this.callback.requestDone(StatusFactory.getStatusCreate().getStatusOK(), null);
-                } finally {
+                    failed(e);
                 }
             }
+
+            private void failed(Throwable e) {
+                log.log(Level.SEVERE, "Failed to complete batch request " + args + " for : " + SERVICE_DESC, e);
+                this.callback.requestDone(StatusFactory.getStatusCreate().createStatus(StatusType.ERROR,
+                        "Failed to complete the batch: " + e.getMessage(), e), null);
+            }
         }
 
         public void shutdown() {
             log.info("shutting down service.");
-            ElasticSearchClientManager.close();
-            log.info("shut down elastic client.");
-            pool.shutdown();
+            scheduler.shutdownNow();
+            decodePool.shutdown();
+            if (store != null) {
+                store.close();
+            }
+            log.info(SERVICE_DESC + " " + metrics);
+            if (executor == null) {
+                log.info("completed shut down.");
+                return;
+            }
+            executor.shutdown();
             // Disable new tasks from being submitted
             try {
                 // Wait a while for existing tasks to terminate
-                if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
-                    pool.shutdownNow(); // Cancel currently executing tasks
+                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                    executor.shutdownNow(); // Cancel currently executing tasks
                     // Wait a while for tasks to respond to being cancelled
-                    if (!pool.awaitTermination(60, TimeUnit.SECONDS))
+                    if (!executor.awaitTermination(60, TimeUnit.SECONDS))
                         System.err.println("Pool did not terminate");
                 }
             } catch (InterruptedException ie) {
                 // (Re-)Cancel if current thread also interrupted
-                pool.shutdownNow();
+                executor.shutdownNow();
                 // Preserve interrupt status
                 Thread.currentThread().interrupt();
             }
@@ -276,6 +1102,37 @@ public class ChannelFinderService {
         }
     }
 
+    /**
+     * A service to remove all the cached query results, the result is an
+     * NTScalar with the number of results removed.
+     */
+    private static class CacheInvalidationService implements RPCService {
+
+        @Override
+        public PVStructure request(PVStructure args) throws RPCRequestException {
+            int removed = ChannelFinderServiceImpl.getInstance().invalidateCache();
+            log.info("invalidated " + removed + " cached results");
+            NTScalar result = NTScalar.createBuilder().value(ScalarType.pvLong).create();
+            result.getPVStructure().getSubField(PVLong.class, "value").put(removed);
+            return result.getPVStructure();
+        }
+    }
+
+    /**
+     * A service streaming large results as pages, see
+     * {@link ChannelFinderServiceImpl#stream(PVStructure)}. The pages are
+     * dispatched as the queries, see
+     * {@link ChannelFinderServiceImpl#stream(PVStructure, RPCResponseCallback)}
+     */
+    private static class StreamService implements RPCServiceAsync {
+
+        @Override
+        public void request(PVStructure args, RPCResponseCallback call) {
+            log.fine(args.toString());
+            ChannelFinderServiceImpl.getInstance().stream(args, call);
+        }
+    }
+
     abstract class OnlyXmlProperty {
         @JsonIgnore
         private List<XmlChannel> channels;
@@ -295,6 +1152,8 @@ public class ChannelFinderService {
             log.info("Shutting down service " + SERVICE_DESC);
             try {
                 ChannelFinderServiceImpl.getInstance().shutdown();
+                ElasticSearchClientManager.close();
+                log.info("shut down elastic client.");
                 server.destroy();
                 log.info(SERVICE_DESC + " Shutdown complete.");
             } catch (PVAException e) {
@@ -304,6 +1163,8 @@ public class ChannelFinderService {
 
         log.info(SERVICE_DESC + " initializing...");
         server.registerService(SERVICE_DESC, ChannelFinderServiceImpl.getInstance());
+        server.registerService(INVALIDATE_SERVICE_DESC, new CacheInvalidationService());
+        server.registerService(STREAM_SERVICE_DESC, new StreamService());
         server.printInfo();
         log.info(SERVICE_DESC + " is operational.");
 
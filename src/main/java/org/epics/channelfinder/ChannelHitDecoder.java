@@ -0,0 +1,258 @@
+package org.epics.channelfinder;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Decodes the source of channel documents with the jackson streaming parser
+ * directly into the columns of a result, without creating the intermediate
+ * {@link XmlChannel}, {@link XmlProperty} and {@link XmlTag} objects.
+ *
+ * Large results are split into chunks which are decoded in parallel on a fork
+ * join pool into chunk local columns, which are then merged by row.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelHitDecoder {
+
+    /**
+     * The receiver of the decoded channel fields
+     */
+    public interface ColumnSink {
+
+        /**
+         * @param row - the row of the channel
+         * @param name - the channel name
+         */
+        void name(int row, String name);
+
+        /**
+         * @param row - the row of the channel
+         * @param owner - the channel owner
+         */
+        void owner(int row, String owner);
+
+        /**
+         * @param row - the row of the channel
+         * @param name - the property name
+         * @param value - the property value
+         */
+        void property(int row, String name, String value);
+
+        /**
+         * @param row - the row of the channel
+         * @param name - the tag name
+         */
+        void tag(int row, String name);
+    }
+
+    private static Logger log = Logger.getLogger(ChannelHitDecoder.class.getCanonicalName());
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * @param pool - the pool on which large results are decoded
+     * @param chunkSize - the number of hits decoded by each task, results
+     *            with fewer hits are decoded on the calling thread
+     */
+    public ChannelHitDecoder(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Decode the hits of a search into the columns of the result
+     *
+     * @param hits - the search hits
+     * @param filter - the properties and tags to be returned, see
+     *            {@link ChannelColumns}
+     * @return the columns of the result
+     */
+    public ChannelColumns decode(SearchHit[] hits, Set<String> filter) {
+        if (hits.length <= chunkSize) {
+            ChannelColumns columns = new ChannelColumns(hits.length, filter);
+            decode(hits, 0, hits.length, columns);
+            return columns;
+        }
+        ChannelColumns[] chunks = new ChannelColumns[(hits.length + chunkSize - 1) / chunkSize];
+        pool.invoke(new DecodeTask(hits, filter, chunks, 0, chunks.length));
+        ChannelColumns columns = new ChannelColumns(hits.length, filter);
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            columns.merge(chunks[chunk], chunk * chunkSize);
+        }
+        return columns;
+    }
+
+    /**
+     * Decode the hits [from, to) into the given columns, row 0 of the columns
+     * being the hit at from.
+     */
+    private static void decode(SearchHit[] hits, int from, int to, ChannelColumns columns) {
+        for (int i = from; i < to; i++) {
+            try {
+                decode(hits[i].sourceRef(), i - from, columns);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to decode channel " + hits[i].getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Decodes the chunks [first, last) forking until each task has a single chunk
+     */
+    private class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SearchHit[] hits;
+        private final Set<String> filter;
+        private final ChannelColumns[] chunks;
+        private final int first;
+        private final int last;
+
+        private DecodeTask(SearchHit[] hits, Set<String> filter, ChannelColumns[] chunks, int first, int last) {
+            this.hits = hits;
+            this.filter = filter;
+            this.chunks = chunks;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first > 1) {
+                int middle = (first + last) >>> 1;
+                invokeAll(new DecodeTask(hits, filter, chunks, first, middle),
+                        new DecodeTask(hits, filter, chunks, middle, last));
+            } else {
+                int from = first * chunkSize;
+                int to = Math.min(from + chunkSize, hits.length);
+                ChannelColumns columns = new ChannelColumns(to - from, filter);
+                decode(hits, from, to, columns);
+                chunks[first] = columns;
+            }
+        }
+    }
+
+    /**
+     * Decode the source of a channel document
+     *
+     * @param source - the document source
+     * @param row - the row of the channel in the result
+     * @param sink - the receiver of the channel fields
+     * @throws IOException if the source is not a valid channel document
+     */
+    public static void decode(BytesReference source, int row, ColumnSink sink) throws IOException {
+        if (source.hasArray()) {
+            decode(source.array(), source.arrayOffset(), source.length(), row, sink);
+        } else {
+            byte[] bytes = source.toBytes();
+            decode(bytes, 0, bytes.length, row, sink);
+        }
+    }
+
+    /**
+     * Decode the source of a channel document
+     *
+     * @param source - the buffer holding the document source
+     * @param offset - the offset of the source in the buffer
+     * @param length - the length of the source
+     * @param row - the row of the channel in the result
+     * @param sink - the receiver of the channel fields
+     * @throws IOException if the source is not a valid channel document
+     */
+    public static void decode(byte[] source, int offset, int length, int row, ColumnSink sink) throws IOException {
+        try (JsonParser parser = factory.createParser(source, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("expected a channel object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                case "name":
+                    sink.name(row, parser.getValueAsString());
+                    break;
+                case "owner":
+                    sink.owner(row, parser.getValueAsString());
+                    break;
+                case "properties":
+                    if (token == JsonToken.START_ARRAY) {
+                        decodeProperties(parser, row, sink);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "tags":
+                    if (token == JsonToken.START_ARRAY) {
+                        decodeTags(parser, row, sink);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void decodeProperties(JsonParser parser, int row, ColumnSink sink) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                case "name":
+                    name = parser.getValueAsString();
+                    break;
+                case "value":
+                    value = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+                }
+            }
+            if (name != null) {
+                sink.property(row, name, value);
+            }
+        }
+    }
+
+    private static void decodeTags(JsonParser parser, int row, ColumnSink sink) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("name")) {
+                    name = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (name != null) {
+                sink.tag(row, name);
+            }
+        }
+    }
+}
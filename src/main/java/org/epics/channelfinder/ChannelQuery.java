@@ -0,0 +1,425 @@
+package org.epics.channelfinder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.epics.nt.NTURI;
+import org.epics.pvdata.pv.PVString;
+import org.epics.pvdata.pv.PVStructure;
+
+/**
+ * The canonical form of a channelfinder query.
+ *
+ * The patterns are trimmed, the OR'ed alternatives are sorted and de-duplicated
+ * and the AND'ed tag clauses are sorted and de-duplicated, so queries which
+ * select the same channels have the same canonical form and fingerprint
+ * regardless of the order of the NTURI query fields or the patterns.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelQuery {
+
+    private static Logger log = Logger.getLogger(ChannelQuery.class.getCanonicalName());
+
+    public static final int DEFAULT_SIZE = 10000;
+    /** the size of a query returning all the matching channels */
+    public static final int ALL = Integer.MAX_VALUE;
+
+    /**
+     * The kinds of results of a query
+     */
+    public enum Mode {
+        /** an NTTable of the matching channels */
+        CHANNELS,
+        /** an NTScalar of the number of matching channels */
+        COUNT,
+        /** an NTScalar which is true if any channel matches */
+        EXISTS,
+        /** an NTTable of the number of matching channels per value of the facets */
+        FACETS
+    }
+
+    /** the facet of the tags of the matching channels */
+    public static final String TAG_FACET = "_tag";
+
+    /**
+     * The encodings of the result table
+     */
+    public enum Format {
+        /** a column per property and tag with a row per channel */
+        DENSE,
+        /** the rarely populated properties and tags only list the rows they are set on */
+        SPARSE,
+        /** as sparse, the properties with few distinct values are encoded as a dictionary and a code per row */
+        DICTIONARY
+    }
+
+    private final List<String> names;
+    private final List<List<String>> tags;
+    private final SortedMap<String, List<String>> properties;
+    private final int size;
+    private final int from;
+    private final boolean sorted;
+    private final Set<String> filter;
+    private final Format format;
+    private final Mode mode;
+    private final List<String> facets;
+    private final boolean paged;
+    private final ChannelCursor cursor;
+
+    private final String canonical;
+    private final long fingerprint;
+
+    private ChannelQuery(List<String> names, List<List<String>> tags, SortedMap<String, List<String>> properties,
+            int size, int from, boolean sorted, Set<String> filter, Format format, Mode mode,
+            List<String> facets, boolean paged, ChannelCursor cursor) {
+        this.names = names;
+        this.tags = tags;
+        this.properties = properties;
+        this.size = size;
+        this.from = from;
+        this.sorted = sorted;
+        this.filter = filter;
+        this.format = format;
+        this.mode = mode;
+        this.facets = facets;
+        this.paged = paged;
+        this.cursor = cursor;
+        this.canonical = createCanonical();
+        this.fingerprint = fnv1a(canonical);
+    }
+
+    /**
+     * Create the query from the query fields of an NTURI
+     *
+     * @param args - the NTURI request
+     * @return the canonical query
+     */
+    public static ChannelQuery of(PVStructure args) {
+        NTURI uri = NTURI.wrap(args);
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (String parameter : uri.getQueryNames()) {
+            PVString value = uri.getQueryField(PVString.class, parameter);
+            if (value != null) {
+                parameters.put(parameter, value.get());
+            }
+        }
+        return of(parameters);
+    }
+
+    /**
+     * Create the query from the query keywords and their values, see the
+     * README for the supported keywords
+     *
+     * @param parameters - the query keywords and their values
+     * @return the canonical query
+     */
+    public static ChannelQuery of(Map<String, String> parameters) {
+        List<String> names = Collections.emptyList();
+        Set<List<String>> tags = new TreeSet<>((a, b) -> String.join("|", a).compareTo(String.join("|", b)));
+        SortedMap<String, List<String>> properties = new TreeMap<>();
+        int size = DEFAULT_SIZE;
+        int from = 0;
+        boolean sorted = false;
+        Set<String> filter = new TreeSet<>();
+        Format format = Format.DENSE;
+        Mode mode = Mode.CHANNELS;
+        Set<String> facets = new TreeSet<>();
+        boolean paged = false;
+        ChannelCursor cursor = null;
+
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String value = parameter.getValue();
+            if (parameter.getKey().equals("_cursor")) {
+                // an empty cursor requests the first page
+                paged = true;
+                if (value != null && !value.trim().isEmpty()) {
+                    cursor = ChannelCursor.decode(value);
+                }
+                continue;
+            }
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            switch (parameter.getKey()) {
+            case "_name":
+                names = alternatives(value);
+                break;
+            case "_tag":
+                for (String clause : value.trim().split("\\&")) {
+                    tags.add(alternatives(clause));
+                }
+                break;
+            case "_size":
+                if (value.trim().equalsIgnoreCase("all")) {
+                    size = ALL;
+                    break;
+                }
+                try {
+                    size = Integer.valueOf(value.trim());
+                    sorted = true;
+                } catch (NumberFormatException e) {
+                    log.warning("failed to parse the size: " + value);
+                }
+                break;
+            case "_from":
+                try {
+                    from = Integer.valueOf(value.trim());
+                    sorted = true;
+                } catch (NumberFormatException e) {
+                    log.warning("failed to parse the from: " + value);
+                }
+                break;
+            case "_filter":
+                for (String column : value.trim().split(",")) {
+                    filter.add(column.trim());
+                }
+                break;
+            case "_count":
+                if (!value.trim().equalsIgnoreCase("false")) {
+                    mode = Mode.COUNT;
+                }
+                break;
+            case "_exists":
+                if (!value.trim().equalsIgnoreCase("false")) {
+                    mode = Mode.EXISTS;
+                }
+                break;
+            case "_facet":
+                for (String facet : value.trim().split(",")) {
+                    if (!facet.trim().isEmpty()) {
+                        facets.add(facet.trim());
+                    }
+                }
+                if (!facets.isEmpty()) {
+                    mode = Mode.FACETS;
+                }
+                break;
+            case "_format":
+                try {
+                    format = Format.valueOf(value.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    log.warning("unknown format: " + value);
+                }
+                break;
+            default:
+                properties.put(parameter.getKey().trim(), alternatives(value));
+                break;
+            }
+        }
+        return new ChannelQuery(names, Collections.unmodifiableList(new ArrayList<>(tags)),
+                Collections.unmodifiableSortedMap(properties), size, from, sorted,
+                Collections.unmodifiableSet(filter), format, mode,
+                Collections.unmodifiableList(new ArrayList<>(facets)), paged, cursor);
+    }
+
+    /**
+     * Split the OR'ed patterns, the patterns are trimmed, sorted and
+     * de-duplicated. Empty patterns are dropped unless all the patterns are
+     * empty.
+     */
+    private static List<String> alternatives(String value) {
+        Set<String> patterns = new TreeSet<>();
+        for (String pattern : value.trim().split("\\|")) {
+            patterns.add(pattern.trim());
+        }
+        if (patterns.size() > 1) {
+            patterns.remove("");
+        }
+        return Collections.unmodifiableList(new ArrayList<>(patterns));
+    }
+
+    /**
+     * @return the OR'ed channel name patterns, empty if the query does not
+     *         select on the name
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the AND'ed tag clauses, each a list of OR'ed tag name patterns
+     */
+    public List<List<String>> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return the property names and their OR'ed value patterns
+     */
+    public SortedMap<String, List<String>> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the maximum number of channels to return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of initial channels to skip, always 0 for cursor
+     *         paginated queries
+     */
+    public int getFrom() {
+        return paged ? 0 : from;
+    }
+
+    /**
+     * @return the field the results should be sorted on, the results are
+     *         sorted by name when the query is paginated
+     */
+    public Optional<String> getSortField() {
+        return sorted || paged ? Optional.of("name") : Optional.empty();
+    }
+
+    /**
+     * @return true if the query requests a page of a cursor paginated result,
+     *         the result then carries the cursor of the next page
+     */
+    public boolean isPaged() {
+        return paged;
+    }
+
+    /**
+     * @return the position after which the page starts, empty for the first
+     *         page
+     */
+    public Optional<ChannelCursor> getCursor() {
+        return Optional.ofNullable(cursor);
+    }
+
+    /**
+     * @return the properties and tags to be returned, "ALL" for none
+     */
+    public Set<String> getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the kind of result of the query
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the properties, and {@link #TAG_FACET} for the tags, whose
+     *         values are counted by a facet query
+     */
+    public List<String> getFacets() {
+        return facets;
+    }
+
+    /**
+     * @return the encoding of the result table
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return a stable 64 bit hash of the canonical form of the query
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    private String createCanonical() {
+        List<String> clauses = new ArrayList<>();
+        if (!names.isEmpty()) {
+            clauses.add("_name=" + join("|", names));
+        }
+        tags.forEach(tag -> clauses.add("_tag=" + join("|", tag)));
+        properties.forEach((name, values) -> clauses.add(escape(name) + "=" + join("|", values)));
+        if (sorted) {
+            clauses.add("_size=" + size);
+            clauses.add("_from=" + from);
+        } else if (size == ALL) {
+            clauses.add("_size=all");
+        }
+        if (!filter.isEmpty()) {
+            clauses.add("_filter=" + join(",", filter));
+        }
+        if (mode == Mode.FACETS) {
+            clauses.add("_facet=" + join(",", facets));
+        } else if (mode != Mode.CHANNELS) {
+            clauses.add("_" + mode.name().toLowerCase() + "=true");
+        }
+        if (paged) {
+            clauses.add("_cursor=" + (cursor == null ? "" : escape(cursor.encode())));
+        }
+        if (format != Format.DENSE) {
+            clauses.add("_format=" + format.name().toLowerCase());
+        }
+        return clauses.stream().collect(Collectors.joining("&"));
+    }
+
+    private static String join(String delimiter, Collection<String> patterns) {
+        return patterns.stream().map(ChannelQuery::escape).collect(Collectors.joining(delimiter));
+    }
+
+    /**
+     * Escape the separators of the canonical form so that distinct queries
+     * cannot have the same canonical form
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("&", "\\&").replace("=", "\\=");
+    }
+
+    /**
+     * 64 bit FNV-1a hash, unlike {@link String#hashCode()} it has few enough
+     * collisions to identify queries in logs and metrics.
+     */
+    private static long fnv1a(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ChannelQuery))
+            return false;
+        return canonical.equals(((ChannelQuery) obj).canonical);
+    }
+
+    /**
+     * @return the canonical form of the query
+     */
+    @Override
+    public String toString() {
+        return canonical;
+    }
+
+    /**
+     * @return the fingerprint as a hex string
+     */
+    public String toFingerprintString() {
+        return String.format("%016x", fingerprint);
+    }
+}
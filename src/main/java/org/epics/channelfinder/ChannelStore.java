@@ -0,0 +1,828 @@
+package org.epics.channelfinder;
+
+import static org.elasticsearch.index.query.FilterBuilders.matchAllFilter;
+import static org.elasticsearch.index.query.FilterBuilders.rangeFilter;
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.indexing.IndexingStats;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+
+/**
+ * An in-process replica of the channelfinder index which answers queries
+ * without a round trip to elastic.
+ *
+ * The replica is bulk loaded with an elastic scroll and kept current by
+ * periodic incremental pulls of the channels indexed since the previous pull,
+ * selected by the _timestamp of the channel documents. A pull only rebuilds
+ * the small delta segment of a {@link Snapshot}, the delta is merged into the
+ * base once it exceeds the merge threshold.
+ *
+ * Deleted channels are not seen by an incremental pull, so the replica is
+ * reloaded when channels have been deleted, when the documents have no
+ * _timestamp or when the number of replicated channels differs from the
+ * index. A reload reads, sorts and indexes the whole catalog and holds two
+ * copies of the replica until the new snapshot is published, so reloads are
+ * at least the rebuild interval apart, however short the refresh interval,
+ * and until then the pulls keep being applied to the current snapshot. Each
+ * load or pull publishes a new immutable snapshot, a query is always answered
+ * from a single consistent snapshot.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelStore {
+
+    private static Logger log = Logger.getLogger(ChannelStore.class.getCanonicalName());
+
+    private static final String INDEX = "channelfinder";
+
+    private final int batchSize;
+    private final TimeValue keepAlive;
+    private final long overlap;
+    private final int mergeThreshold;
+    private final long rebuildInterval;
+
+    private ScheduledExecutorService scheduler;
+    private volatile Snapshot snapshot;
+    private long lastLoad;
+    private boolean reloadPending = false;
+
+    /**
+     * @param batchSize - the number of channels read per scroll request
+     * @param keepAlive - the keep alive of the scroll between two requests
+     * @param overlap - how far before the latest replicated _timestamp an
+     *            incremental pull starts, in milliseconds, so the channels
+     *            indexed just before the previous pull but not yet searchable
+     *            are not missed
+     * @param mergeThreshold - the number of pulled channels above which the
+     *            delta segment is merged into a new base segment
+     * @param rebuildInterval - the minimum delay between two reloads of the
+     *            whole replica, in milliseconds
+     */
+    public ChannelStore(int batchSize, TimeValue keepAlive, long overlap, int mergeThreshold, long rebuildInterval) {
+        this.batchSize = batchSize;
+        this.keepAlive = keepAlive;
+        this.overlap = overlap;
+        this.mergeThreshold = mergeThreshold;
+        this.rebuildInterval = rebuildInterval;
+    }
+
+    /**
+     * Load the replica and refresh it at a fixed delay on a dedicated thread,
+     * queries are answered by elastic until the replica is loaded.
+     *
+     * @param interval - the delay between two refreshes
+     * @param unit - the unit of the interval
+     * @param onChange - run after each refresh which published a new snapshot
+     */
+    public synchronized void start(long interval, TimeUnit unit, Runnable onChange) {
+        scheduler = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "cfService-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (refresh()) {
+                    onChange.run();
+                }
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Failed to refresh the channel store", e);
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Stop refreshing the replica
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the latest snapshot of the replica, null until it is loaded
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Bring the replica up to date with the channelfinder index
+     *
+     * @return true if a new snapshot was published
+     */
+    public synchronized boolean refresh() {
+        IndexingStats.Stats stats = ElasticSearchClientManager.getClient().admin().indices().prepareStats(INDEX)
+                .clear().setIndexing(true).execute().actionGet().getPrimaries().getIndexing().getTotal();
+        Snapshot current = snapshot;
+        if (current == null) {
+            snapshot = load(stats);
+            return true;
+        }
+        boolean changed = stats.getIndexCount() != current.indexCount
+                || stats.getDeleteCount() != current.deleteCount;
+        if (changed && (current.timestamp < 0 || stats.getDeleteCount() != current.deleteCount)) {
+            reloadPending = true;
+        }
+        if (reloadPending && canReload()) {
+            snapshot = load(stats);
+            return true;
+        }
+        if (!changed || current.timestamp < 0) {
+            return false;
+        }
+        Map<String, StoredChannel> pulled = new HashMap<>();
+        long timestamp = pull(rangeFilter("_timestamp").gte(current.timestamp - overlap), pulled,
+                current.timestamp);
+        Snapshot next = current.apply(pulled.values(), stats.getIndexCount(), stats.getDeleteCount(), timestamp,
+                mergeThreshold);
+        long count = ElasticSearchClientManager.getClient().prepareCount(INDEX).execute().actionGet().getCount();
+        if (count != next.size()) {
+            log.fine("the channel store has " + next.size() + " channels and the index " + count + ", reloading");
+            reloadPending = true;
+            if (canReload()) {
+                snapshot = load(stats);
+                return true;
+            }
+        }
+        snapshot = next;
+        log.fine("pulled " + pulled.size() + " channels indexed since " + (current.timestamp - overlap)
+                + " into the channel store");
+        return true;
+    }
+
+    /**
+     * @return true if the rebuild interval has passed since the last load
+     */
+    private boolean canReload() {
+        return System.nanoTime() - lastLoad >= TimeUnit.MILLISECONDS.toNanos(rebuildInterval);
+    }
+
+    private Snapshot load(IndexingStats.Stats stats) {
+        long start = System.nanoTime();
+        lastLoad = start;
+        Map<String, StoredChannel> channels = new HashMap<>();
+        long timestamp = pull(matchAllFilter(), channels, -1);
+        Snapshot loaded = new Snapshot(channels.values(), stats.getIndexCount(), stats.getDeleteCount(), timestamp);
+        reloadPending = false;
+        log.info("loaded " + loaded.size() + " channels into the channel store in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return loaded;
+    }
+
+    /**
+     * Read the channels matching the filter with an elastic scroll
+     *
+     * @param filter - the channels to read
+     * @param channels - the channels by uid, the read channels are added or
+     *            replace the channels with the same uid
+     * @param timestamp - the latest _timestamp of the channels
+     * @return the latest _timestamp of the channels and the read channels, -1
+     *         if the documents have no _timestamp
+     */
+    private long pull(FilterBuilder filter, Map<String, StoredChannel> channels, long timestamp) {
+        TransportClient client = ElasticSearchClientManager.getClient();
+        Map<String, String> strings = new HashMap<>();
+        SearchResponse response = client.prepareSearch(INDEX).setQuery(constantScoreQuery(filter))
+                .setSize(batchSize).setFetchSource(QueryCompiler.CHANNEL_FIELDS, null).addField("_timestamp")
+                .setScroll(keepAlive).execute().actionGet();
+        try {
+            while (response.getHits().hits().length > 0) {
+                for (SearchHit hit : response.getHits().hits()) {
+                    StoredChannel channel = decode(hit, strings);
+                    if (channel != null) {
+                        channels.put(channel.uid, channel);
+                    }
+                    SearchHitField field = hit.field("_timestamp");
+                    if (field != null && field.getValue() instanceof Number) {
+                        timestamp = Math.max(timestamp, ((Number) field.getValue()).longValue());
+                    }
+                }
+                response = client.prepareSearchScroll(response.getScrollId()).setScroll(keepAlive).execute()
+                        .actionGet();
+            }
+        } finally {
+            try {
+                client.prepareClearScroll().addScrollId(response.getScrollId()).execute().actionGet();
+            } catch (Exception e) {
+                log.log(Level.FINE, "Failed to clear the scroll " + response.getScrollId(), e);
+            }
+        }
+        return timestamp;
+    }
+
+    /**
+     * Decode a channel document, the repeated property names and values,
+     * owners and tags of the channels are shared
+     */
+    private static StoredChannel decode(SearchHit hit, Map<String, String> strings) {
+        ChannelSink sink = new ChannelSink(strings);
+        try {
+            ChannelHitDecoder.decode(hit.sourceRef(), 0, sink);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to decode channel " + hit.getId(), e);
+            return null;
+        }
+        return sink.name == null ? null : sink.create(ChannelCursor.uid(hit));
+    }
+
+    /**
+     * Collects the fields of a single channel document
+     */
+    private static class ChannelSink implements ChannelHitDecoder.ColumnSink {
+        private final Map<String, String> strings;
+        private final List<String> propertyNames = new ArrayList<>();
+        private final List<String> propertyValues = new ArrayList<>();
+        private final List<String> tags = new ArrayList<>();
+        private String name;
+        private String owner;
+
+        private ChannelSink(Map<String, String> strings) {
+            this.strings = strings;
+        }
+
+        private String share(String value) {
+            return value == null ? null : strings.computeIfAbsent(value, (s) -> s);
+        }
+
+        @Override
+        public void name(int row, String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void owner(int row, String owner) {
+            this.owner = share(owner);
+        }
+
+        @Override
+        public void property(int row, String name, String value) {
+            propertyNames.add(share(name));
+            propertyValues.add(share(value));
+        }
+
+        @Override
+        public void tag(int row, String name) {
+            tags.add(share(name));
+        }
+
+        private StoredChannel create(String uid) {
+            return new StoredChannel(uid, name, owner, propertyNames.toArray(new String[propertyNames.size()]),
+                    propertyValues.toArray(new String[propertyValues.size()]), tags.toArray(new String[tags.size()]));
+        }
+    }
+
+    /**
+     * A replicated channel, as read from elastic and merged before it is
+     * stored in a {@link Snapshot}
+     */
+    static final class StoredChannel {
+        private final String uid;
+        private final String name;
+        private final String owner;
+        private final String[] propertyNames;
+        private final String[] propertyValues;
+        private final String[] tags;
+
+        /**
+         * @param uid - the elastic uid of the channel document
+         * @param name - the channel name
+         * @param owner - the channel owner
+         * @param propertyNames - the names of the properties
+         * @param propertyValues - the values of the properties, in the order
+         *            of the names
+         * @param tags - the names of the tags
+         */
+        StoredChannel(String uid, String name, String owner, String[] propertyNames, String[] propertyValues,
+                String[] tags) {
+            this.uid = uid;
+            this.name = name;
+            this.owner = owner;
+            this.propertyNames = propertyNames;
+            this.propertyValues = propertyValues;
+            this.tags = tags;
+        }
+    }
+
+    /** the order of the channels in a snapshot, the order of the name and uid sort of a paged query */
+    private static final Comparator<StoredChannel> ORDER = Comparator.comparing((StoredChannel c) -> c.name)
+            .thenComparing((StoredChannel c) -> c.uid);
+
+    /**
+     * An immutable, indexed segment of replicated channels sorted by name and
+     * uid, stored as {@link CompactChannels}.
+     *
+     * The matches of a query are the positions of the matching channels in the
+     * segment, in the order of the segment. Patterns have the semantics of the
+     * elastic wildcard queries, the property values and tag names are matched
+     * as a whole.
+     */
+    private static final class Segment {
+
+        private final CompactChannels channels;
+        private final NameIndex nameIndex;
+        private final TagIndex tagIndex;
+        private final PropertyIndex propertyIndex;
+
+        /**
+         * Sort and index the channels, the cost of a segment is proportional
+         * to the number of its channels
+         */
+        private Segment(Collection<StoredChannel> channels) {
+            StoredChannel[] sorted = channels.toArray(new StoredChannel[channels.size()]);
+            Arrays.sort(sorted, ORDER);
+            CompactChannels.Builder compact = new CompactChannels.Builder();
+            TagIndex.Builder tags = new TagIndex.Builder();
+            PropertyIndex.Builder properties = new PropertyIndex.Builder();
+            for (int position = 0; position < sorted.length; position++) {
+                StoredChannel channel = sorted[position];
+                compact.add(channel.uid, channel.name, channel.owner, channel.propertyNames, channel.propertyValues,
+                        channel.tags);
+                for (String tag : channel.tags) {
+                    tags.add(position, tag);
+                }
+                for (int i = 0; i < channel.propertyNames.length; i++) {
+                    properties.add(position, channel.propertyNames[i], channel.propertyValues[i]);
+                }
+            }
+            this.channels = compact.build();
+            this.nameIndex = NameIndex.of(this.channels.getNames());
+            this.tagIndex = tags.build();
+            this.propertyIndex = properties.build();
+        }
+
+        private int size() {
+            return channels.size();
+        }
+
+        /**
+         * Find the channels matching the query, after the cursor of a paged
+         * query.
+         *
+         * The name patterns select candidates on the {@link NameIndex}, the
+         * tag clauses are evaluated on the {@link TagIndex} and the property
+         * clauses on the {@link PropertyIndex}. The name index matches terms
+         * and prefixes exactly, only the channels in the intersection of the
+         * bitmaps which are not exact matches are verified against the
+         * wildcard name patterns.
+         *
+         * @param hidden - the positions of the channels replaced by a later
+         *            segment
+         * @return the positions of the matching channels in ascending order
+         */
+        private int[] match(ChannelQuery query, int limit, ChannelBitmap hidden) {
+            List<String> exactPatterns = new ArrayList<>();
+            List<String> wildcardPatterns = new ArrayList<>();
+            for (String pattern : query.getNames()) {
+                if (QueryCompiler.patternType(pattern) == QueryCompiler.PatternType.WILDCARD) {
+                    wildcardPatterns.add(pattern);
+                } else {
+                    exactPatterns.add(pattern);
+                }
+            }
+            ChannelBitmap exact = nameIndex.candidates(exactPatterns);
+            Predicate<String> wildcards = wildcardPatterns.isEmpty() ? null : patterns(wildcardPatterns);
+            int start = query.getCursor().isPresent() ? after(query.getCursor().get()) : 0;
+            ChannelBitmap candidates = query.getNames().isEmpty() ? ChannelBitmap.range(0, channels.size())
+                    : exact.or(nameIndex.candidates(wildcardPatterns));
+            if (!query.getTags().isEmpty() && !candidates.isEmpty()) {
+                candidates = candidates.and(tagIndex.match(query.getTags()));
+            }
+            for (Map.Entry<String, List<String>> property : query.getProperties().entrySet()) {
+                if (candidates.isEmpty()) {
+                    break;
+                }
+                candidates = candidates.and(propertyIndex.match(property.getKey(), property.getValue()));
+            }
+            FrontCodedNames.Cursor names = channels.getNames().cursor();
+            Matches matches = new Matches(limit);
+            candidates.forEach(start, (position) -> {
+                if (!hidden.contains(position) && (wildcards == null || exact.contains(position)
+                        || wildcards.test(names.get(position)))) {
+                    matches.add(position);
+                }
+                return matches.count < limit;
+            });
+            return matches.toArray();
+        }
+
+        /**
+         * @return the position of the first channel after the cursor
+         */
+        private int after(ChannelCursor cursor) {
+            FrontCodedNames names = channels.getNames();
+            int position = names.lowerBound(cursor.getName());
+            int end = names.upperBound(cursor.getName());
+            while (position < end && channels.getUid(position, cursor.getName()).compareTo(cursor.getUid()) <= 0) {
+                position++;
+            }
+            return position;
+        }
+
+        /**
+         * @return the position of the channel with the uid, looked up by its
+         *         name and by the id of its uid, -1 if there is none
+         */
+        private int find(String uid, String name) {
+            int position = find(uid, name, channels.getNames());
+            if (position < 0 && uid.startsWith(CompactChannels.UID_PREFIX)) {
+                position = find(uid, uid.substring(CompactChannels.UID_PREFIX.length()), channels.getNames());
+            }
+            return position;
+        }
+
+        private int find(String uid, String name, FrontCodedNames names) {
+            int end = names.upperBound(name);
+            for (int position = names.lowerBound(name); position < end; position++) {
+                if (channels.getUid(position, name).equals(uid)) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Fill a row of the columns with the channel at the position
+         */
+        private void row(ChannelColumns columns, int row, int position, String name) {
+            columns.name(row, name);
+            columns.owner(row, channels.getOwner(position));
+            for (int i = 0; i < channels.getPropertyCount(position); i++) {
+                columns.property(row, channels.getPropertyName(position, i), channels.getPropertyValue(position, i));
+            }
+            for (int i = 0; i < channels.getTagCount(position); i++) {
+                columns.tag(row, channels.getTag(position, i));
+            }
+        }
+
+        /**
+         * Count the value of a facet of the channel at the position
+         */
+        private void facet(String facet, int position, Map<String, Long> counts) {
+            if (facet.equals(ChannelQuery.TAG_FACET)) {
+                for (int i = 0; i < channels.getTagCount(position); i++) {
+                    counts.merge(channels.getTag(position, i), 1L, Long::sum);
+                }
+            } else {
+                String value = channels.getProperty(position, facet);
+                if (value != null) {
+                    counts.merge(value, 1L, Long::sum);
+                }
+            }
+        }
+
+        /**
+         * @return the channel at the position with the given name, to be
+         *         merged with the channels of an incremental pull
+         */
+        private StoredChannel get(int position, String name) {
+            String[] names = new String[channels.getPropertyCount(position)];
+            String[] values = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = channels.getPropertyName(position, i);
+                values[i] = channels.getPropertyValue(position, i);
+            }
+            String[] tags = new String[channels.getTagCount(position)];
+            for (int i = 0; i < tags.length; i++) {
+                tags[i] = channels.getTag(position, i);
+            }
+            return new StoredChannel(channels.getUid(position, name), name, channels.getOwner(position), names,
+                    values, tags);
+        }
+
+        /**
+         * Add the channels which are not hidden to the channels by uid, the
+         * channels already collected are kept
+         */
+        private void collect(ChannelBitmap hidden, Map<String, StoredChannel> channels) {
+            FrontCodedNames.Cursor names = this.channels.getNames().cursor();
+            for (int position = 0; position < size(); position++) {
+                if (!hidden.contains(position)) {
+                    StoredChannel channel = get(position, names.get(position));
+                    channels.putIfAbsent(channel.uid, channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the replicated channels sorted by name and uid.
+     *
+     * A snapshot is a large base {@link Segment}, loaded from elastic, and a
+     * small delta segment of the channels pulled since, which hides the
+     * replaced channels of the base. A pull only rebuilds the delta, the
+     * delta is merged into a new base once it holds more channels than the
+     * merge threshold. The positions of the channels of the base are followed
+     * by the positions of the channels of the delta, the matches of a query
+     * are in name and uid order.
+     */
+    public static final class Snapshot {
+
+        private final Segment base;
+        private final ChannelBitmap hidden;
+        private final Segment delta;
+        private final int size;
+        private final long indexCount;
+        private final long deleteCount;
+        private final long timestamp;
+
+        /**
+         * @param channels - the replicated channels
+         * @param indexCount - the index operations on the index when the
+         *            channels were read
+         * @param deleteCount - the delete operations on the index when the
+         *            channels were read
+         * @param timestamp - the latest _timestamp of the channels, -1 if the
+         *            documents have no _timestamp
+         */
+        Snapshot(Collection<StoredChannel> channels, long indexCount, long deleteCount, long timestamp) {
+            this(new Segment(channels), ChannelBitmap.EMPTY, new Segment(Collections.emptyList()), indexCount,
+                    deleteCount, timestamp);
+        }
+
+        private Snapshot(Segment base, ChannelBitmap hidden, Segment delta, long indexCount, long deleteCount,
+                long timestamp) {
+            this.base = base;
+            this.hidden = hidden;
+            this.delta = delta;
+            this.size = base.size() - hidden.cardinality() + delta.size();
+            this.indexCount = indexCount;
+            this.deleteCount = deleteCount;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Apply the channels of an incremental pull, the channels replace the
+         * channels with the same uid
+         *
+         * @param pulled - the pulled channels
+         * @param indexCount - the index operations on the index when the
+         *            channels were pulled
+         * @param deleteCount - the delete operations on the index when the
+         *            channels were pulled
+         * @param timestamp - the latest _timestamp of the channels
+         * @param mergeThreshold - the number of channels of the delta above
+         *            which it is merged into a new base
+         * @return the snapshot with the pulled channels
+         */
+        Snapshot apply(Collection<StoredChannel> pulled, long indexCount, long deleteCount, long timestamp,
+                int mergeThreshold) {
+            Map<String, StoredChannel> channels = new HashMap<>();
+            delta.collect(ChannelBitmap.EMPTY, channels);
+            int[] positions = new int[pulled.size()];
+            int count = 0;
+            for (StoredChannel channel : pulled) {
+                channels.put(channel.uid, channel);
+                int position = base.find(channel.uid, channel.name);
+                if (position >= 0) {
+                    positions[count++] = position;
+                }
+            }
+            Arrays.sort(positions, 0, count);
+            ChannelBitmap.Builder replaced = new ChannelBitmap.Builder();
+            for (int i = 0; i < count; i++) {
+                replaced.add(positions[i]);
+            }
+            ChannelBitmap replacedOrHidden = hidden.or(replaced.build());
+            if (channels.size() > mergeThreshold) {
+                log.fine("merging " + channels.size() + " channels into a new base of the channel store");
+                base.collect(replacedOrHidden, channels);
+                return new Snapshot(channels.values(), indexCount, deleteCount, timestamp);
+            }
+            return new Snapshot(base, replacedOrHidden, new Segment(channels.values()), indexCount, deleteCount,
+                    timestamp);
+        }
+
+        /**
+         * @return the number of channels
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Find the channels matching the query, after the cursor of a paged
+         * query, in the base and the delta
+         *
+         * @param query - the canonical query
+         * @param limit - the maximum number of matches to find
+         * @return the positions of the matching channels in name and uid order
+         */
+        public int[] match(ChannelQuery query, int limit) {
+            int[] baseMatches = base.match(query, limit, hidden);
+            if (delta.size() == 0) {
+                return baseMatches;
+            }
+            int[] deltaMatches = delta.match(query, limit, ChannelBitmap.EMPTY);
+            int[] matches = new int[(int) Math.min(limit, (long) baseMatches.length + deltaMatches.length)];
+            FrontCodedNames.Cursor baseNames = base.channels.getNames().cursor();
+            FrontCodedNames.Cursor deltaNames = delta.channels.getNames().cursor();
+            int b = 0;
+            int d = 0;
+            for (int i = 0; i < matches.length; i++) {
+                boolean fromBase;
+                if (d == deltaMatches.length) {
+                    fromBase = true;
+                } else if (b == baseMatches.length) {
+                    fromBase = false;
+                } else {
+                    String baseName = baseNames.get(baseMatches[b]);
+                    String deltaName = deltaNames.get(deltaMatches[d]);
+                    int cmp = baseName.compareTo(deltaName);
+                    if (cmp == 0) {
+                        cmp = base.channels.getUid(baseMatches[b], baseName)
+                                .compareTo(delta.channels.getUid(deltaMatches[d], deltaName));
+                    }
+                    fromBase = cmp < 0;
+                }
+                matches[i] = fromBase ? baseMatches[b++] : base.size() + deltaMatches[d++];
+            }
+            return matches;
+        }
+
+        /**
+         * Create the columns of a page of the matching channels
+         *
+         * @param matches - the positions of the matching channels
+         * @param from - the number of initial matches to skip
+         * @param size - the maximum number of channels in the page
+         * @param filter - the properties and tags to be returned, see
+         *            {@link ChannelColumns}
+         * @return the columns of the page
+         */
+        public ChannelColumns columns(int[] matches, int from, int size, Set<String> filter) {
+            int first = Math.min(Math.max(from, 0), matches.length);
+            int last = (int) Math.min(matches.length, (long) first + size);
+            ChannelColumns columns = new ChannelColumns(last - first, filter);
+            FrontCodedNames.Cursor baseNames = base.channels.getNames().cursor();
+            FrontCodedNames.Cursor deltaNames = delta.channels.getNames().cursor();
+            for (int row = 0; row < last - first; row++) {
+                int position = matches[first + row];
+                if (position < base.size()) {
+                    base.row(columns, row, position, baseNames.get(position));
+                } else {
+                    delta.row(columns, row, position - base.size(), deltaNames.get(position - base.size()));
+                }
+            }
+            return columns;
+        }
+
+        /**
+         * @param position - the position of a channel
+         * @return the elastic uid of the channel
+         */
+        public String getUid(int position) {
+            return position < base.size() ? base.channels.getUid(position)
+                    : delta.channels.getUid(position - base.size());
+        }
+
+        /**
+         * @param position - the position of a channel
+         * @return a read-only view of the channel
+         */
+        public XmlChannel getChannel(int position) {
+            return position < base.size() ? base.channels.getChannel(position)
+                    : delta.channels.getChannel(position - base.size());
+        }
+
+        /**
+         * Count the matching channels per value of each facet, in the order
+         * of the elastic terms aggregations, by descending count then value
+         *
+         * @param facets - the properties, and {@link ChannelQuery#TAG_FACET}
+         *            for the tags
+         * @param matches - the positions of the matching channels
+         * @return the number of channels per value of each facet
+         */
+        public List<Map<String, Long>> facets(List<String> facets, int[] matches) {
+            List<Map<String, Long>> result = new ArrayList<>();
+            for (String facet : facets) {
+                Map<String, Long> counts = new HashMap<>();
+                for (int match : matches) {
+                    if (match < base.size()) {
+                        base.facet(facet, match, counts);
+                    } else {
+                        delta.facet(facet, match - base.size(), counts);
+                    }
+                }
+                Map<String, Long> ordered = new LinkedHashMap<>();
+                counts.entrySet().stream()
+                        .sorted(Map.Entry.<String, Long> comparingByValue().reversed()
+                                .thenComparing(Map.Entry.comparingByKey()))
+                        .forEach((e) -> ordered.put(e.getKey(), e.getValue()));
+                result.add(ordered);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The positions of the matches of a query, up to a limit
+     */
+    private static final class Matches {
+        private final int limit;
+        private int[] positions;
+        private int count = 0;
+
+        private Matches(int limit) {
+            this.limit = limit;
+            this.positions = new int[Math.min(Math.max(limit, 0), 1024)];
+        }
+
+        private void add(int position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, (int) Math.min((long) count * 2, limit));
+            }
+            positions[count++] = position;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(positions, count);
+        }
+    }
+
+    /**
+     * @return a predicate matching any of the OR'ed patterns
+     */
+    private static Predicate<String> patterns(List<String> patterns) {
+        Predicate<String> predicate = pattern(patterns.get(0));
+        for (int i = 1; i < patterns.size(); i++) {
+            predicate = predicate.or(pattern(patterns.get(i)));
+        }
+        return predicate;
+    }
+
+    /**
+     * Create the cheapest predicate matching the pattern, see
+     * {@link QueryCompiler#patternType(String)}
+     *
+     * @param pattern - the wildcard pattern
+     * @return a predicate matching the strings matching the pattern
+     */
+    static Predicate<String> pattern(String pattern) {
+        switch (QueryCompiler.patternType(pattern)) {
+        case TERM:
+            return pattern::equals;
+        case PREFIX:
+            String prefix = pattern.substring(0, pattern.length() - 1);
+            return (value) -> value.startsWith(prefix);
+        case WILDCARD:
+        default:
+            Pattern regex = Pattern.compile(toRegex(pattern), Pattern.DOTALL);
+            return (value) -> regex.matcher(value).matches();
+        }
+    }
+
+    /**
+     * Translate a wildcard pattern, '*' and '?' are wildcards and '\' escapes
+     * the next character, into a regular expression
+     */
+    private static String toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else if (c == '\\' && i + 1 < pattern.length()) {
+                literal.append(pattern.charAt(++i));
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,281 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact, immutable storage of channels sorted by name.
+ *
+ * An {@link XmlChannel} holds its own sets of properties and tags and every
+ * property and tag repeats its name and owner, a few million channels with
+ * tens of properties take tens of GB. Here the names of the channels are
+ * {@link FrontCodedNames}, the owners, property names, property values and
+ * tag names are each stored once in a dictionary and a channel is a slice of
+ * a single int array of references to the dictionaries:
+ *
+ * <pre>
+ * owner, property count, property name, property value, ..., tag, ...
+ * </pre>
+ *
+ * The elastic uid of a channel is only stored when it is not the uid of a
+ * channel document with the name of the channel as id. Channels are read
+ * through the accessors of a position or as read-only {@link XmlChannel}
+ * views created on demand.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class CompactChannels {
+
+    /** the prefix of the elastic uid of the channel documents */
+    static final String UID_PREFIX = "channel#";
+    /** the reference of a missing owner or property value */
+    private static final int NONE = -1;
+
+    private final FrontCodedNames names;
+    private final Map<Integer, String> uids;
+    private final String[] owners;
+    private final String[] propertyNames;
+    private final String[] propertyValues;
+    private final String[] tags;
+    private final int[] offsets;
+    private final int[] references;
+
+    private CompactChannels(FrontCodedNames names, Map<Integer, String> uids, String[] owners,
+            String[] propertyNames, String[] propertyValues, String[] tags, int[] offsets, int[] references) {
+        this.names = names;
+        this.uids = uids;
+        this.owners = owners;
+        this.propertyNames = propertyNames;
+        this.propertyValues = propertyValues;
+        this.tags = tags;
+        this.offsets = offsets;
+        this.references = references;
+    }
+
+    /**
+     * The strings of one dictionary, numbered in order of first use
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private int id(String string) {
+            if (string == null) {
+                return NONE;
+            }
+            return ids.computeIfAbsent(string, (s) -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+
+        private String[] toArray() {
+            return strings.toArray(new String[strings.size()]);
+        }
+    }
+
+    /**
+     * Builds the storage from channels added in ascending name order
+     */
+    public static class Builder {
+        private final FrontCodedNames.Builder names = new FrontCodedNames.Builder();
+        private final Map<Integer, String> uids = new HashMap<>();
+        private final Dictionary owners = new Dictionary();
+        private final Dictionary propertyNames = new Dictionary();
+        private final Dictionary propertyValues = new Dictionary();
+        private final Dictionary tags = new Dictionary();
+        private int size = 0;
+        private int[] offsets = new int[64];
+        private int[] references = new int[256];
+        private int length = 0;
+
+        /**
+         * @param uid - the elastic uid of the channel document
+         * @param name - the channel name, not lower than the names of the
+         *            previously added channels
+         * @param owner - the channel owner
+         * @param propertyNames - the names of the properties
+         * @param propertyValues - the values of the properties, in the order
+         *            of the names
+         * @param tags - the names of the tags
+         * @return this builder
+         * @throws IllegalArgumentException if the name is lower than the
+         *             previous name
+         */
+        public Builder add(String uid, String name, String owner, String[] propertyNames,
+                String[] propertyValues, String[] tags) {
+            names.add(name);
+            if (!uid.startsWith(UID_PREFIX) || !uid.regionMatches(UID_PREFIX.length(), name, 0, name.length())
+                    || uid.length() != UID_PREFIX.length() + name.length()) {
+                uids.put(size, uid);
+            }
+            if (size + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            int count = 2 + 2 * propertyNames.length + tags.length;
+            if (length + count > references.length) {
+                references = Arrays.copyOf(references, Math.max(references.length * 2, length + count));
+            }
+            offsets[size] = length;
+            references[length++] = owners.id(owner);
+            references[length++] = propertyNames.length;
+            for (int i = 0; i < propertyNames.length; i++) {
+                references[length++] = this.propertyNames.id(propertyNames[i]);
+                references[length++] = this.propertyValues.id(propertyValues[i]);
+            }
+            for (String tag : tags) {
+                references[length++] = this.tags.id(tag);
+            }
+            size++;
+            offsets[size] = length;
+            return this;
+        }
+
+        /**
+         * @return the storage of the added channels
+         */
+        public CompactChannels build() {
+            return new CompactChannels(names.build(), uids, owners.toArray(), propertyNames.toArray(),
+                    propertyValues.toArray(), tags.toArray(), Arrays.copyOf(offsets, size + 1),
+                    Arrays.copyOf(references, length));
+        }
+    }
+
+    /**
+     * @return the number of channels
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return the sorted names of the channels
+     */
+    public FrontCodedNames getNames() {
+        return names;
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @return the channel name
+     */
+    public String getName(int position) {
+        return names.get(position);
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @return the elastic uid of the channel document
+     */
+    public String getUid(int position) {
+        String uid = uids.get(position);
+        return uid != null ? uid : UID_PREFIX + names.get(position);
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @param name - the name of the channel, already decoded
+     * @return the elastic uid of the channel document
+     */
+    public String getUid(int position, String name) {
+        String uid = uids.get(position);
+        return uid != null ? uid : UID_PREFIX + name;
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @return the channel owner
+     */
+    public String getOwner(int position) {
+        return string(owners, references[offsets[position]]);
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @return the number of properties of the channel
+     */
+    public int getPropertyCount(int position) {
+        return references[offsets[position] + 1];
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @param index - the index of a property of the channel
+     * @return the name of the property
+     */
+    public String getPropertyName(int position, int index) {
+        return propertyNames[references[offsets[position] + 2 + 2 * index]];
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @param index - the index of a property of the channel
+     * @return the value of the property
+     */
+    public String getPropertyValue(int position, int index) {
+        return string(propertyValues, references[offsets[position] + 3 + 2 * index]);
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @param property - a property name
+     * @return the value of the property of the channel, null if the channel
+     *         does not have the property
+     */
+    public String getProperty(int position, String property) {
+        for (int i = 0; i < getPropertyCount(position); i++) {
+            if (getPropertyName(position, i).equals(property)) {
+                return getPropertyValue(position, i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @return the number of tags of the channel
+     */
+    public int getTagCount(int position) {
+        return offsets[position + 1] - offsets[position] - 2 - 2 * getPropertyCount(position);
+    }
+
+    /**
+     * @param position - the position of a channel
+     * @param index - the index of a tag of the channel
+     * @return the name of the tag
+     */
+    public String getTag(int position, int index) {
+        return tags[references[offsets[position] + 2 + 2 * getPropertyCount(position) + index]];
+    }
+
+    /**
+     * Create a read-only view of a channel, the properties and tags of the
+     * view can not be modified and carry no owner nor channels
+     *
+     * @param position - the position of a channel
+     * @return the channel
+     */
+    public XmlChannel getChannel(int position) {
+        Set<XmlProperty> properties = new HashSet<>();
+        for (int i = 0; i < getPropertyCount(position); i++) {
+            properties.add(new XmlProperty(getPropertyName(position, i), null, getPropertyValue(position, i)));
+        }
+        Set<XmlTag> channelTags = new HashSet<>();
+        for (int i = 0; i < getTagCount(position); i++) {
+            channelTags.add(new XmlTag(getTag(position, i)));
+        }
+        return new XmlChannel(getName(position), getOwner(position), Collections.unmodifiableSet(properties),
+                Collections.unmodifiableSet(channelTags));
+    }
+
+    private static String string(String[] dictionary, int reference) {
+        return reference == NONE ? null : dictionary[reference];
+    }
+}
@@ -9,6 +9,7 @@ import java.util.logging.Logger;
 
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 
@@ -39,6 +40,16 @@ public class ElasticSearchClientManager {
         return searchClient;
     }
 
+    /**
+     * The settings loaded by the transport client from elasticsearch.yml, this
+     * includes the channelfinder.* settings used to configure the service.
+     * 
+     * @return the client settings, or empty settings if the client failed to initialize
+     */
+    public static Settings getSettings() {
+        return searchClient != null ? searchClient.settings() : ImmutableSettings.EMPTY;
+    }
+
     public static void close() {
         log.info("Close the default Transport clients.");
         if (searchClient != null) {
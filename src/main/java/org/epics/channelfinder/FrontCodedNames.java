@@ -0,0 +1,249 @@
+package org.epics.channelfinder;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A sorted list of channel names, front coded.
+ *
+ * The names are split in blocks of {@link #BLOCK} names, the first name of a
+ * block is stored whole and every other name as the length of the prefix it
+ * shares with the previous name and the remaining characters. Sorted channel
+ * names share long prefixes, SR:C001-BPM1 follows SR:C001-BPM0, so the
+ * characters of the names take a fraction of the space of the strings and
+ * there is no object per name. A name is decoded from the start of its
+ * block, a name is found by a binary search of the first names of the blocks
+ * and a scan of a single block. Names read in ascending position order, the
+ * rows of a result, are decoded with a {@link Cursor} which decodes each block
+ * once.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class FrontCodedNames {
+
+    /** the number of names per block */
+    static final int BLOCK = 16;
+
+    private final int size;
+    private final char[] data;
+    private final int[] offsets;
+    private final char[] shared;
+
+    private FrontCodedNames(int size, char[] data, int[] offsets, char[] shared) {
+        this.size = size;
+        this.data = data;
+        this.offsets = offsets;
+        this.shared = shared;
+    }
+
+    /**
+     * Builds the list from names added in ascending order
+     */
+    public static class Builder {
+        private int size = 0;
+        private char[] data = new char[256];
+        private int length = 0;
+        private int[] offsets = new int[BLOCK + 1];
+        private char[] shared = new char[BLOCK];
+        private String previous = "";
+
+        /**
+         * @param name - a name, not lower than the previously added names
+         * @return this builder
+         * @throws IllegalArgumentException if the name is lower than the
+         *             previous name
+         */
+        public Builder add(String name) {
+            if (name.compareTo(previous) < 0) {
+                throw new IllegalArgumentException("name " + name + " added out of order");
+            }
+            int prefix = 0;
+            if (size % BLOCK != 0) {
+                int max = Math.min(Math.min(name.length(), previous.length()), Character.MAX_VALUE);
+                while (prefix < max && name.charAt(prefix) == previous.charAt(prefix)) {
+                    prefix++;
+                }
+            }
+            if (size + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                shared = Arrays.copyOf(shared, offsets.length);
+            }
+            int suffix = name.length() - prefix;
+            if (length + suffix > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + suffix));
+            }
+            name.getChars(prefix, name.length(), data, length);
+            shared[size] = (char) prefix;
+            offsets[size] = length;
+            length += suffix;
+            size++;
+            offsets[size] = length;
+            previous = name;
+            return this;
+        }
+
+        /**
+         * @return the list of the added names
+         */
+        public FrontCodedNames build() {
+            return new FrontCodedNames(size, Arrays.copyOf(data, length), Arrays.copyOf(offsets, size + 1),
+                    Arrays.copyOf(shared, size));
+        }
+    }
+
+    /**
+     * @return the number of names
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param position - the position of a name
+     * @return the name
+     */
+    public String get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + " of " + size);
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = position - position % BLOCK; i <= position; i++) {
+            decode(i, name);
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return a cursor decoding the names at ascending positions
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decodes the names at ascending positions, the names between two
+     * positions in the same block are decoded once instead of decoding each
+     * name from the start of its block
+     */
+    public final class Cursor {
+        private final StringBuilder name = new StringBuilder();
+        private int position = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @param target - the position of a name, the cursor decodes from the
+         *            start of the block if it is lower than the previous
+         *            position or in another block
+         * @return the name
+         */
+        public String get(int target) {
+            if (target < 0 || target >= size) {
+                throw new IndexOutOfBoundsException("position " + target + " of " + size);
+            }
+            if (position < 0 || target < position || target / BLOCK != position / BLOCK) {
+                position = target - target % BLOCK;
+                decode(position, name);
+            }
+            while (position < target) {
+                decode(++position, name);
+            }
+            return name.toString();
+        }
+    }
+
+    /**
+     * Decode all the names in ascending order
+     *
+     * @param consumer - consumes each name and its position
+     */
+    public void forEach(ObjIntConsumer<String> consumer) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            decode(i, name);
+            consumer.accept(name.toString(), i);
+        }
+    }
+
+    /**
+     * Replace the previous name with the name at the position
+     */
+    private void decode(int position, StringBuilder name) {
+        name.setLength(shared[position]);
+        name.append(data, offsets[position], offsets[position + 1] - offsets[position]);
+    }
+
+    /**
+     * @param key - a name
+     * @return the position of the first name not lower than the key
+     */
+    public int lowerBound(String key) {
+        return bound(key, false);
+    }
+
+    /**
+     * @param key - a name
+     * @return the position of the first name greater than the key
+     */
+    public int upperBound(String key) {
+        return bound(key, true);
+    }
+
+    private int bound(String key, boolean upper) {
+        int low = 0;
+        int high = (size + BLOCK - 1) / BLOCK;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHead(mid, key);
+            if (cmp < 0 || (upper && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return 0;
+        }
+        int start = (low - 1) * BLOCK;
+        int end = Math.min(low * BLOCK, size);
+        StringBuilder name = new StringBuilder();
+        decode(start, name);
+        for (int i = start + 1; i < end; i++) {
+            decode(i, name);
+            int cmp = compare(name, key);
+            if (cmp > 0 || (!upper && cmp == 0)) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Compare the first name of a block with a key, without decoding it
+     */
+    private int compareHead(int block, String key) {
+        int start = offsets[block * BLOCK];
+        int length = offsets[block * BLOCK + 1] - start;
+        int max = Math.min(length, key.length());
+        for (int i = 0; i < max; i++) {
+            int cmp = data[start + i] - key.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length();
+    }
+
+    private static int compare(CharSequence name, String key) {
+        int max = Math.min(name.length(), key.length());
+        for (int i = 0; i < max; i++) {
+            int cmp = name.charAt(i) - key.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return name.length() - key.length();
+    }
+}
@@ -0,0 +1,126 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the channels of a {@link ChannelStore.Snapshot} by name.
+ *
+ * The channels of a snapshot are sorted by name, so the names matching a term
+ * or starting with the literal prefix of a pattern are a contiguous range of
+ * positions found by binary search of the {@link FrontCodedNames}. The index
+ * also holds the postings of the trigrams of the names, the candidates of a
+ * pattern with a leading or infix wildcard, like SR*C001* or *:BPM*, are the
+ * channels whose names contain all the trigrams of the literal segments of
+ * the pattern. The candidates are a superset of the matches which still have
+ * to be verified against the pattern, but are found without scanning all the
+ * names.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class NameIndex {
+
+    private final FrontCodedNames names;
+    private final Map<Long, ChannelBitmap> trigrams;
+
+    private NameIndex(FrontCodedNames names, Map<Long, ChannelBitmap> trigrams) {
+        this.names = names;
+        this.trigrams = trigrams;
+    }
+
+    /**
+     * Create the index of the sorted names of the channels
+     *
+     * @param names - the names of the channels, in position order
+     * @return the index of the names
+     */
+    public static NameIndex of(FrontCodedNames names) {
+        Map<Long, ChannelBitmap.Builder> trigrams = new HashMap<>();
+        names.forEach((name, position) -> {
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                trigrams.computeIfAbsent(trigram(name, i), (t) -> new ChannelBitmap.Builder()).add(position);
+            }
+        });
+        Map<Long, ChannelBitmap> postings = new HashMap<>();
+        trigrams.forEach((trigram, builder) -> postings.put(trigram, builder.build()));
+        return new NameIndex(names, postings);
+    }
+
+    private static long trigram(CharSequence s, int start) {
+        return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16) | s.charAt(start + 2);
+    }
+
+    /**
+     * @param patterns - the OR'ed name patterns
+     * @return the positions of the channels whose names may match any
+     *         pattern, all the channels whose names match are included and
+     *         the candidates of terms and prefixes are exactly their matches
+     */
+    public ChannelBitmap candidates(List<String> patterns) {
+        ChannelBitmap result = ChannelBitmap.EMPTY;
+        for (String pattern : patterns) {
+            result = result.or(candidates(pattern));
+        }
+        return result;
+    }
+
+    private ChannelBitmap candidates(String pattern) {
+        if (QueryCompiler.patternType(pattern) == QueryCompiler.PatternType.TERM) {
+            return ChannelBitmap.range(names.lowerBound(pattern), names.upperBound(pattern));
+        }
+        String prefix = QueryCompiler.literalPrefix(pattern);
+        ChannelBitmap result = ChannelBitmap.range(names.lowerBound(prefix),
+                names.upperBound(prefix + Character.MAX_VALUE));
+        if (QueryCompiler.patternType(pattern) == QueryCompiler.PatternType.PREFIX) {
+            return result;
+        }
+        List<ChannelBitmap> postings = new ArrayList<>();
+        for (String segment : segments(pattern)) {
+            for (int i = 0; i + 3 <= segment.length(); i++) {
+                ChannelBitmap posting = trigrams.get(trigram(segment, i));
+                if (posting == null) {
+                    return ChannelBitmap.EMPTY;
+                }
+                postings.add(posting);
+            }
+        }
+        postings.sort(Comparator.comparingInt(ChannelBitmap::cardinality));
+        for (ChannelBitmap posting : postings) {
+            if (result.isEmpty()) {
+                break;
+            }
+            result = result.and(posting);
+        }
+        return result;
+    }
+
+    /**
+     * @return the literal segments of a wildcard pattern, separated by the
+     *         '*' and '?' wildcards, with the escaped characters unescaped
+     */
+    private static List<String> segments(String pattern) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (segment.length() > 0) {
+                    segments.add(segment.toString());
+                    segment.setLength(0);
+                }
+            } else if (c == '\\' && i + 1 < pattern.length()) {
+                segment.append(pattern.charAt(++i));
+            } else {
+                segment.append(c);
+            }
+        }
+        if (segment.length() > 0) {
+            segments.add(segment.toString());
+        }
+        return segments;
+    }
+}
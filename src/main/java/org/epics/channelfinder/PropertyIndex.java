@@ -0,0 +1,146 @@
+package org.epics.channelfinder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * An inverted index of the channels of a {@link ChannelStore.Snapshot} by
+ * property value.
+ *
+ * Each property name maps to the sorted dictionary of its distinct values and
+ * each value to the {@link ChannelBitmap} of the positions of the channels
+ * with the value. A value pattern is expanded against the dictionary: a term
+ * is a binary search, the values matching a prefix or the literal prefix of a
+ * wildcard pattern are a contiguous range of the dictionary, and only the
+ * values of that range are tested against a wildcard pattern. The bitmaps of
+ * the matching values are OR'ed.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class PropertyIndex {
+
+    /**
+     * The sorted distinct values of a property and the positions of the
+     * channels with each value
+     */
+    private static final class Values {
+        private final String[] values;
+        private final ChannelBitmap[] bitmaps;
+
+        private Values(String[] values, ChannelBitmap[] bitmaps) {
+            this.values = values;
+            this.bitmaps = bitmaps;
+        }
+
+        /**
+         * @return the index of the first value not lower than the key
+         */
+        private int lowerBound(String key) {
+            int index = Arrays.binarySearch(values, key);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    private final Map<String, Values> properties;
+
+    private PropertyIndex(Map<String, Values> properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Builds the index from the properties of the channels added in
+     * ascending position order
+     */
+    public static class Builder {
+        private final Map<String, Map<String, ChannelBitmap.Builder>> properties = new HashMap<>();
+
+        /**
+         * @param position - the position of the channel, not lower than the
+         *            positions of the previously added channels
+         * @param name - the name of a property of the channel
+         * @param value - the value of the property, properties without a
+         *            value are not indexed
+         * @return this builder
+         */
+        public Builder add(int position, String name, String value) {
+            if (value != null) {
+                properties.computeIfAbsent(name, (n) -> new TreeMap<>())
+                        .computeIfAbsent(value, (v) -> new ChannelBitmap.Builder()).add(position);
+            }
+            return this;
+        }
+
+        /**
+         * @return the index of the added properties
+         */
+        public PropertyIndex build() {
+            Map<String, Values> index = new HashMap<>();
+            properties.forEach((name, values) -> {
+                String[] sorted = values.keySet().toArray(new String[values.size()]);
+                ChannelBitmap[] bitmaps = new ChannelBitmap[sorted.length];
+                for (int i = 0; i < sorted.length; i++) {
+                    bitmaps[i] = values.get(sorted[i]).build();
+                }
+                index.put(name, new Values(sorted, bitmaps));
+            });
+            return new PropertyIndex(index);
+        }
+    }
+
+    /**
+     * @param name - a property name
+     * @return the number of distinct values of the property
+     */
+    public int size(String name) {
+        Values values = properties.get(name);
+        return values == null ? 0 : values.values.length;
+    }
+
+    /**
+     * @param name - a property name
+     * @param value - a property value
+     * @return the positions of the channels with the property value
+     */
+    public ChannelBitmap get(String name, String value) {
+        Values values = properties.get(name);
+        if (values == null) {
+            return ChannelBitmap.EMPTY;
+        }
+        int index = Arrays.binarySearch(values.values, value);
+        return index >= 0 ? values.bitmaps[index] : ChannelBitmap.EMPTY;
+    }
+
+    /**
+     * @param name - a property name
+     * @param patterns - the OR'ed value patterns
+     * @return the positions of the channels with a value of the property
+     *         matching any pattern
+     */
+    public ChannelBitmap match(String name, List<String> patterns) {
+        Values values = properties.get(name);
+        if (values == null) {
+            return ChannelBitmap.EMPTY;
+        }
+        ChannelBitmap result = ChannelBitmap.EMPTY;
+        for (String pattern : patterns) {
+            if (QueryCompiler.patternType(pattern) == QueryCompiler.PatternType.TERM) {
+                result = result.or(get(name, pattern));
+                continue;
+            }
+            Predicate<String> matcher = ChannelStore.pattern(pattern);
+            String prefix = QueryCompiler.literalPrefix(pattern);
+            for (int i = values.lowerBound(prefix); i < values.values.length
+                    && values.values[i].startsWith(prefix); i++) {
+                if (matcher.test(values.values[i])) {
+                    result = result.or(values.bitmaps[i]);
+                }
+            }
+        }
+        return result;
+    }
+}
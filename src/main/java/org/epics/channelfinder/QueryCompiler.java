@@ -0,0 +1,238 @@
+package org.epics.channelfinder;
+
+import static org.elasticsearch.index.query.FilterBuilders.andFilter;
+import static org.elasticsearch.index.query.FilterBuilders.boolFilter;
+import static org.elasticsearch.index.query.FilterBuilders.matchAllFilter;
+import static org.elasticsearch.index.query.FilterBuilders.nestedFilter;
+import static org.elasticsearch.index.query.FilterBuilders.orFilter;
+import static org.elasticsearch.index.query.FilterBuilders.prefixFilter;
+import static org.elasticsearch.index.query.FilterBuilders.queryFilter;
+import static org.elasticsearch.index.query.FilterBuilders.rangeFilter;
+import static org.elasticsearch.index.query.FilterBuilders.termFilter;
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.wildcardQuery;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.filter;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.nested;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.terms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.OrFilterBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+
+/**
+ * Compiles a {@link ChannelQuery} into a non scoring elastic query.
+ *
+ * The results are never ranked, so every clause is executed as a filter which
+ * elastic can cache and reuse between requests. Patterns without wildcards
+ * become term filters, patterns with only a trailing '*' become prefix filters
+ * and only the remaining patterns are executed as wildcard queries.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class QueryCompiler {
+
+    /**
+     * The kinds of patterns, in the order of the cost of evaluating them
+     */
+    enum PatternType {
+        /** a pattern without any wildcards */
+        TERM,
+        /** a pattern whose only wildcard is a trailing '*' */
+        PREFIX,
+        /** any other pattern */
+        WILDCARD
+    }
+
+    /** the fields of the channel documents needed for a result without properties and tags */
+    private static final String[] NAME_FIELDS = { "name", "owner" };
+    /** the fields of the channel documents needed for a result with properties and tags */
+    static final String[] CHANNEL_FIELDS = { "name", "owner", "properties.name", "properties.value",
+            "tags.name" };
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * Classify a wildcard pattern, '*' and '?' are wildcards and '\' escapes
+     * the next character
+     *
+     * @param pattern - the pattern
+     * @return the type of the pattern
+     */
+    static PatternType patternType(String pattern) {
+        int wildcard = indexOfWildcard(pattern);
+        if (wildcard < 0) {
+            return PatternType.TERM;
+        }
+        if (wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '*') {
+            return PatternType.PREFIX;
+        }
+        return PatternType.WILDCARD;
+    }
+
+    /**
+     * The literal prefix of a pattern, every string matching the pattern
+     * starts with it
+     *
+     * @param pattern - the pattern
+     * @return the characters of the pattern before its first wildcard or
+     *         escape, the pattern if it has none
+     */
+    static String literalPrefix(String pattern) {
+        int wildcard = indexOfWildcard(pattern);
+        return wildcard < 0 ? pattern : pattern.substring(0, wildcard);
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compile the query
+     *
+     * @param query - the canonical query
+     * @return a constant score elastic query
+     */
+    public static QueryBuilder compile(ChannelQuery query) {
+        return constantScoreQuery(compileFilter(query));
+    }
+
+    /**
+     * Compile the selection of the query into a filter
+     *
+     * @param query - the canonical query
+     * @return the filter selecting the channels matching the query
+     */
+    public static FilterBuilder compileFilter(ChannelQuery query) {
+        BoolFilterBuilder filter = boolFilter();
+        boolean empty = true;
+        if (!query.getNames().isEmpty()) {
+            filter.must(patternsFilter("name", query.getNames(), false));
+            empty = false;
+        }
+        // the tags are also indexed in the channel document (include_in_parent),
+        // since each tag clause is on a single field it does not need a nested filter
+        for (List<String> tag : query.getTags()) {
+            filter.must(patternsFilter("tags.name", tag, true));
+            empty = false;
+        }
+        // a property clause has to match the name and value of the same nested property
+        for (String name : query.getProperties().keySet()) {
+            filter.must(nestedFilter("properties",
+                    boolFilter().must(termFilter("properties.name", name))
+                            .must(patternsFilter("properties.value", query.getProperties().get(name), true)))
+                                    .cache(true));
+            empty = false;
+        }
+        // a page of a cursor paginated query starts after the last channel of
+        // the previous page, in the order of the name and uid sort
+        if (query.getCursor().isPresent()) {
+            ChannelCursor cursor = query.getCursor().get();
+            filter.must(orFilter(rangeFilter("name").gt(cursor.getName()),
+                    andFilter(termFilter("name", cursor.getName()), rangeFilter("_uid").gt(cursor.getUid()))));
+            empty = false;
+        }
+        return empty ? matchAllFilter() : filter;
+    }
+
+    /**
+     * The name of the aggregation of a facet
+     *
+     * @param index - the index of the facet in {@link ChannelQuery#getFacets()}
+     * @return the aggregation name
+     */
+    static String facetName(int index) {
+        return "facet" + index;
+    }
+
+    /**
+     * Compile the facets of the query into terms aggregations of the values of
+     * each facet, named by {@link #facetName(int)}.
+     *
+     * A property facet aggregates the values of the nested properties with
+     * the name of the facet, since a channel has a property at most once the
+     * counts are the number of channels. The tag facet aggregates the tag
+     * names which are also indexed in the channel document.
+     *
+     * @param query - the canonical query
+     * @return the aggregations of the facets
+     */
+    public static List<AbstractAggregationBuilder> compileFacets(ChannelQuery query) {
+        List<AbstractAggregationBuilder> aggregations = new ArrayList<>();
+        List<String> facets = query.getFacets();
+        for (int i = 0; i < facets.size(); i++) {
+            if (facets.get(i).equals(ChannelQuery.TAG_FACET)) {
+                aggregations.add(terms(facetName(i)).field("tags.name").size(0));
+            } else {
+                aggregations.add(nested(facetName(i)).path("properties")
+                        .subAggregation(filter("property").filter(termFilter("properties.name", facets.get(i)))
+                                .subAggregation(terms("values").field("properties.value").size(0))));
+            }
+        }
+        return aggregations;
+    }
+
+    /**
+     * The source fields of the channel documents needed to create the result of
+     * the query, the owners of the properties and tags are never returned.
+     *
+     * Source filtering selects fields by path, it cannot select the properties
+     * and tags listed in the _filter by name, those are still filtered when the
+     * result is created.
+     *
+     * @param query - the canonical query
+     * @return the source fields to be included in the search hits
+     */
+    public static String[] sourceIncludes(ChannelQuery query) {
+        return query.getFilter().contains("ALL") ? NAME_FIELDS.clone() : CHANNEL_FIELDS.clone();
+    }
+
+    /**
+     * Create a filter matching any of the OR'ed patterns
+     */
+    private static FilterBuilder patternsFilter(String field, List<String> patterns, boolean cache) {
+        if (patterns.size() == 1) {
+            return patternFilter(field, patterns.get(0), cache);
+        }
+        OrFilterBuilder filter = orFilter();
+        for (String pattern : patterns) {
+            filter.add(patternFilter(field, pattern, cache));
+        }
+        return filter;
+    }
+
+    /**
+     * Create the cheapest filter matching the pattern, term and prefix filters
+     * are cached by elastic by default.
+     *
+     * @param field - the field to match
+     * @param pattern - the wildcard pattern
+     * @param cache - if the filter should be cached when the pattern is a
+     *            wildcard, set for the tag and property values which are
+     *            repeated across many queries
+     * @return a term, prefix or wildcard filter
+     */
+    static FilterBuilder patternFilter(String field, String pattern, boolean cache) {
+        switch (patternType(pattern)) {
+        case TERM:
+            return termFilter(field, pattern);
+        case PREFIX:
+            return prefixFilter(field, pattern.substring(0, pattern.length() - 1));
+        case WILDCARD:
+        default:
+            return queryFilter(wildcardQuery(field, pattern)).cache(cache);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.epics.channelfinder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A least recently used cache of query results bounded by the estimated size
+ * of the cached results, entries also expire after a fixed time to live.
+ *
+ * Each invalidation increments the generation of the cache, results of queries
+ * started before an invalidation are not cached since they may already be
+ * stale.
+ *
+ * @author Kunal Shroff
+ *
+ * @param <V> the type of the cached results
+ */
+public class QueryResultCache<V> {
+
+    private static class Entry<V> {
+        private final V value;
+        private final long bytes;
+        private final long created;
+
+        private Entry(V value, long bytes, long created) {
+            this.value = value;
+            this.bytes = bytes;
+            this.created = created;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private long bytes = 0;
+    private long generation = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxBytes - the maximum estimated size of all the cached results
+     * @param ttl - the time after which a cached result expires
+     * @param unit - the unit of the ttl
+     */
+    public QueryResultCache(long maxBytes, long ttl, TimeUnit unit) {
+        this(maxBytes, ttl, unit, System::nanoTime);
+    }
+
+    QueryResultCache(long maxBytes, long ttl, TimeUnit unit, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    /**
+     * Get the cached result for the query
+     *
+     * @param key - the normalized query
+     * @return the cached result or null if the query is not cached or has expired
+     */
+    public synchronized V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.created > ttlNanos) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put} with the
+     *         result of a query started now
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Cache the result of a query, evicting the least recently used results
+     * until the cache is within its size limit.
+     *
+     * @param key - the normalized query
+     * @param value - the result
+     * @param size - the estimated size of the result in bytes
+     * @param generation - the generation of the cache when the query was started
+     * @return true if the result was cached
+     */
+    public synchronized boolean put(String key, V value, long size, long generation) {
+        if (generation != this.generation || size > maxBytes) {
+            return false;
+        }
+        remove(key);
+        entries.put(key, new Entry<>(value, size, clock.getAsLong()));
+        bytes += size;
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Remove all the cached results
+     *
+     * @return the number of results removed
+     */
+    public synchronized int invalidate() {
+        int size = entries.size();
+        entries.clear();
+        bytes = 0;
+        generation++;
+        return size;
+    }
+
+    private void remove(String key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache entries: %d size: %d bytes hits: %d misses: %d", size(), bytes(), hits.sum(),
+                misses.sum());
+    }
+}
@@ -0,0 +1,79 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.epics.pvaccess.server.rpc.RPCResponseCallback;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.Status;
+
+/**
+ * Coalesces identical requests which are in flight at the same time, only the
+ * first request for a query is executed and its result is returned to all the
+ * callbacks which joined while it was executing.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class RequestCoalescer {
+
+    private static Logger log = Logger.getLogger(RequestCoalescer.class.getCanonicalName());
+
+    private final ConcurrentHashMap<String, List<RPCResponseCallback>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Join the request for the given query.
+     * 
+     * @param key - the normalized query
+     * @param callback - the callback to be completed with the result of the query
+     * @return true if this is the first request for the query, the caller must
+     *         then execute the query and {@link #complete} it
+     */
+    public boolean join(String key, RPCResponseCallback callback) {
+        // the callbacks of a query are only added within the atomic compute of
+        // its key and read once removed, so the first request is decided there
+        boolean[] first = { false };
+        inFlight.compute(key, (k, list) -> {
+            if (list == null) {
+                list = new ArrayList<>();
+                first[0] = true;
+            }
+            list.add(callback);
+            return list;
+        });
+        return first[0];
+    }
+
+    /**
+     * Complete all the requests waiting on the given query, the same result is
+     * shared by all the callbacks.
+     * 
+     * @param key - the normalized query
+     * @param status - the status of the request
+     * @param result - the result of the query
+     */
+    public void complete(String key, Status status, PVStructure result) {
+        List<RPCResponseCallback> callbacks = inFlight.remove(key);
+        if (callbacks == null) {
+            return;
+        }
+        log.fine("completing " + callbacks.size() + " requests for " + key);
+        for (RPCResponseCallback callback : callbacks) {
+            try {
+                callback.requestDone(status, result);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Failed to complete request for " + key, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct queries currently in flight
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,97 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Collects the result of a query from the batches of hits of an elastic
+ * scroll.
+ *
+ * Each batch is decoded into columns as it arrives, so only the decoded
+ * columns and not the hits of the earlier batches are held until the scroll
+ * completes. At most size hits are collected, a scroll always starts at the
+ * first hit so pages deeper in the result are requested with a _cursor
+ * instead.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ScrollCollector {
+
+    private final ChannelHitDecoder decoder;
+    private final Set<String> filter;
+    private final List<ChannelColumns> chunks = new ArrayList<>();
+
+    private long remaining;
+    private int rows = 0;
+    private String lastUid;
+
+    /**
+     * @param decoder - the decoder of the hits
+     * @param filter - the properties and tags to be returned, see
+     *            {@link ChannelColumns}
+     * @param size - the maximum number of hits to collect
+     */
+    public ScrollCollector(ChannelHitDecoder decoder, Set<String> filter, int size) {
+        this.decoder = decoder;
+        this.filter = filter;
+        this.remaining = size;
+    }
+
+    /**
+     * Decode the next batch of hits of the scroll
+     *
+     * @param hits - the hits of the batch
+     * @return true if the next batch is needed, false once the scroll is
+     *         exhausted or size hits have been collected
+     */
+    public boolean add(SearchHit[] hits) {
+        if (hits.length == 0) {
+            return false;
+        }
+        int end = (int) Math.min(hits.length, remaining);
+        if (end > 0) {
+            SearchHit[] batch = end == hits.length ? hits : Arrays.copyOfRange(hits, 0, end);
+            ChannelColumns chunk = decoder.decode(batch, filter);
+            chunks.add(chunk);
+            rows += chunk.size();
+            remaining -= chunk.size();
+            lastUid = ChannelCursor.uid(batch[batch.length - 1]);
+        }
+        return remaining > 0;
+    }
+
+    /**
+     * @return the number of collected hits
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return the elastic uid of the last collected hit, null if none
+     */
+    public String getLastUid() {
+        return lastUid;
+    }
+
+    /**
+     * @return the columns of all the collected hits
+     */
+    public ChannelColumns columns() {
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        ChannelColumns columns = new ChannelColumns(rows, filter);
+        int offset = 0;
+        for (ChannelColumns chunk : chunks) {
+            columns.merge(chunk, offset);
+            offset += chunk.size();
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,92 @@
+package org.epics.channelfinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simple counters describing the load on the channelfinder service, used to
+ * size the worker pool.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ServiceMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    /**
+     * Record the time a request spent waiting in the dispatch queue before a
+     * worker picked it up.
+     *
+     * @param nanos - time spent in the queue
+     */
+    public void recordQueueWait(long nanos) {
+        requests.increment();
+        queueWaitNanos.add(nanos);
+        maxQueueWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Record a request which was refused because the dispatch queue was full.
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Record a request which was answered with the result of an identical
+     * request already in flight.
+     */
+    public void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the average queue wait in milliseconds
+     */
+    public double getAverageQueueWait() {
+        long count = requests.sum();
+        return count == 0 ? 0 : (double) queueWaitNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the longest queue wait in milliseconds
+     */
+    public double getMaxQueueWait() {
+        return (double) maxQueueWaitNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Reset all the counters, used to report the metrics per interval
+     */
+    public void reset() {
+        requests.reset();
+        rejected.reset();
+        coalesced.reset();
+        queueWaitNanos.reset();
+        maxQueueWaitNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests: %d rejected: %d coalesced: %d queue wait avg: %.3f ms max: %.3f ms",
+                getRequests(), getRejected(), getCoalesced(), getAverageQueueWait(), getMaxQueueWait());
+    }
+}
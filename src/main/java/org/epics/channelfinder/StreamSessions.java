@@ -0,0 +1,134 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The open sessions of the streamed query results.
+ *
+ * A client pulls the pages of a result one request at a time, a session is
+ * taken while its next page is being created so that it is never used by two
+ * requests at once. Sessions which are not resumed within the keep alive are
+ * expired.
+ *
+ * @author Kunal Shroff
+ *
+ * @param <S> the state of a session
+ */
+public class StreamSessions<S> {
+
+    private static class Session<S> {
+        private final S state;
+        private final long accessed;
+
+        private Session(S state, long accessed) {
+            this.state = state;
+            this.accessed = accessed;
+        }
+    }
+
+    private final Map<String, Session<S>> sessions = new LinkedHashMap<>();
+    private final int maxSessions;
+    private final long keepAliveNanos;
+    private final LongSupplier clock;
+
+    private int taken = 0;
+
+    /**
+     * @param maxSessions - the maximum number of open sessions
+     * @param keepAlive - the time after which an idle session expires
+     * @param unit - the unit of the keep alive
+     */
+    public StreamSessions(int maxSessions, long keepAlive, TimeUnit unit) {
+        this(maxSessions, keepAlive, unit, System::nanoTime);
+    }
+
+    StreamSessions(int maxSessions, long keepAlive, TimeUnit unit, LongSupplier clock) {
+        this.maxSessions = maxSessions;
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+        this.clock = clock;
+    }
+
+    /**
+     * Reserve a session for a new stream, the session is taken until it is
+     * resumed or closed
+     *
+     * @return the token of the session or null if the maximum number of
+     *         sessions are open
+     */
+    public synchronized String open() {
+        if (sessions.size() + taken >= maxSessions) {
+            return null;
+        }
+        taken++;
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Take the session to create its next page
+     *
+     * @param token - the token of the session
+     * @return the state of the session or null if it is unknown, expired or
+     *         already taken
+     */
+    public synchronized S take(String token) {
+        Session<S> session = sessions.remove(token);
+        if (session == null) {
+            return null;
+        }
+        taken++;
+        return session.state;
+    }
+
+    /**
+     * Return a taken session once the page has been created
+     *
+     * @param token - the token of the session
+     * @param state - the state of the session for the next page
+     */
+    public synchronized void resume(String token, S state) {
+        taken--;
+        sessions.put(token, new Session<>(state, clock.getAsLong()));
+    }
+
+    /**
+     * Release a taken session once its last page has been created or it failed
+     */
+    public synchronized void close() {
+        taken--;
+    }
+
+    /**
+     * Remove the sessions which have not been resumed within the keep alive
+     *
+     * @return the state of the expired sessions
+     */
+    public synchronized List<S> expire() {
+        List<S> expired = new ArrayList<>();
+        long now = clock.getAsLong();
+        Iterator<Session<S>> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session<S> session = iterator.next();
+            // the sessions are in the order they were resumed
+            if (now - session.accessed <= keepAliveNanos) {
+                break;
+            }
+            expired.add(session.state);
+            iterator.remove();
+        }
+        return expired;
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public synchronized int size() {
+        return sessions.size() + taken;
+    }
+}
@@ -0,0 +1,281 @@
+package org.epics.channelfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+import org.epics.nt.NTTable;
+import org.epics.nt.NTTableBuilder;
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.FieldBuilder;
+import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Structure;
+
+/**
+ * A least recently used cache of the NTTable introspection structures of the
+ * query results, keyed by the ordered columns of the table and whether the
+ * table has a descriptor.
+ *
+ * Clients repeatedly request the same column sets, so the structure and labels
+ * of a result are created once per column set and each result only creates the
+ * data of the table.
+ *
+ * The columns of the table are the fields of its value structure and have the
+ * length of the table. A column which does not have a value per row, like the
+ * rows of a sparse column, is a field of the value structure of a structure
+ * next to the value of the table, which has its own labels:
+ *
+ * <pre>
+ * structure &lt;name&gt;
+ *     string[] labels
+ *     structure value
+ * </pre>
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class TableStructureCache {
+
+    /**
+     * A column of a table, the field name is the label unless the table
+     * encodes its columns in several fields
+     */
+    public static final class Column {
+        private final String field;
+        private final ScalarType type;
+        private final String label;
+        private final String structure;
+
+        /**
+         * @param field - the name of the field of the column
+         * @param type - the type of the elements of the column
+         * @param label - the label of the column
+         * @param structure - the name of the structure next to the value of
+         *            the table holding the column, the column is a field of
+         *            the value if null
+         */
+        public Column(String field, ScalarType type, String label, String structure) {
+            this.field = field;
+            this.type = type;
+            this.label = label;
+            this.structure = structure;
+        }
+
+        /**
+         * A column of the value of the table
+         *
+         * @param field - the name of the field of the column
+         * @param type - the type of the elements of the column
+         * @param label - the label of the column
+         */
+        public Column(String field, ScalarType type, String label) {
+            this(field, type, label, null);
+        }
+
+        /**
+         * A column labelled with its field name
+         *
+         * @param field - the name of the field of the column
+         * @param type - the type of the elements of the column
+         */
+        public Column(String field, ScalarType type) {
+            this(field, type, field);
+        }
+
+        /**
+         * @return the path of the field of the column in the table
+         */
+        String getPath() {
+            return structure == null ? "value." + field : structure + ".value." + field;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, type, label, structure);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Column))
+                return false;
+            Column other = (Column) obj;
+            return field.equals(other.field) && type == other.type && label.equals(other.label)
+                    && Objects.equals(structure, other.structure);
+        }
+
+        @Override
+        public String toString() {
+            return structure == null ? field + ":" + type + ":" + label
+                    : structure + "." + field + ":" + type + ":" + label;
+        }
+    }
+
+    /**
+     * The introspection structure and labels of the tables with a column set
+     */
+    static class TableShape {
+        private final Structure structure;
+        private final String[] labels;
+        private final Map<String, String[]> structureLabels;
+
+        private TableShape(Structure structure, String[] labels, Map<String, String[]> structureLabels) {
+            this.structure = structure;
+            this.labels = labels;
+            this.structureLabels = structureLabels;
+        }
+
+        Structure getStructure() {
+            return structure;
+        }
+
+        String[] getLabels() {
+            return labels;
+        }
+
+        /**
+         * @return the labels of the columns of each structure next to the
+         *         value of the table, by structure name
+         */
+        Map<String, String[]> getStructureLabels() {
+            return structureLabels;
+        }
+    }
+
+    private final LinkedHashMap<List<Object>, TableShape> shapes;
+    private final BiFunction<List<Column>, Boolean, Structure> factory;
+
+    /**
+     * @param maxSize - the maximum number of cached column sets
+     */
+    public TableStructureCache(int maxSize) {
+        this(maxSize, TableStructureCache::createStructure);
+    }
+
+    TableStructureCache(int maxSize, BiFunction<List<Column>, Boolean, Structure> factory) {
+        this.factory = factory;
+        this.shapes = new LinkedHashMap<List<Object>, TableShape>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, TableShape> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Create an empty NTTable with the columns
+     *
+     * @param columns - the columns of the table
+     * @return the NTTable
+     */
+    public NTTable createTable(List<Column> columns) {
+        return createTable(columns, null);
+    }
+
+    /**
+     * Create an empty NTTable with the columns and a descriptor
+     *
+     * @param columns - the columns of the table
+     * @param descriptor - the descriptor of the table, the table has no
+     *            descriptor field if null
+     * @return the NTTable
+     */
+    public NTTable createTable(List<Column> columns, String descriptor) {
+        TableShape shape = getShape(columns, descriptor != null);
+        PVStructure pvStructure = PVDataFactory.getPVDataCreate().createPVStructure(shape.getStructure());
+        pvStructure.getSubField(PVStringArray.class, "labels").shareData(shape.getLabels());
+        shape.getStructureLabels().forEach((structure, labels) -> {
+            pvStructure.getSubField(PVStringArray.class, structure + ".labels").shareData(labels);
+        });
+        NTTable ntTable = NTTable.wrap(pvStructure);
+        if (descriptor != null) {
+            ntTable.getDescriptor().put(descriptor);
+        }
+        return ntTable;
+    }
+
+    /**
+     * Get the shape of the tables with the columns, creating it if the column
+     * set is not cached
+     *
+     * @param columns - the columns of the table
+     * @param descriptor - if the tables have a descriptor
+     * @return the structure and labels of the tables
+     */
+    synchronized TableShape getShape(List<Column> columns, boolean descriptor) {
+        TableShape shape = shapes.get(Arrays.asList(descriptor, columns));
+        if (shape == null) {
+            Map<String, List<Column>> structures = structures(columns);
+            Map<String, String[]> structureLabels = new LinkedHashMap<>();
+            structures.forEach((structure, structureColumns) -> {
+                if (structure != null) {
+                    structureLabels.put(structure, labels(structureColumns));
+                }
+            });
+            shape = new TableShape(factory.apply(columns, descriptor),
+                    labels(structures.getOrDefault(null, Collections.emptyList())), structureLabels);
+            shapes.put(Arrays.asList(descriptor, new ArrayList<>(columns)), shape);
+        }
+        return shape;
+    }
+
+    /**
+     * @return the number of cached column sets
+     */
+    public synchronized int size() {
+        return shapes.size();
+    }
+
+    /**
+     * @return the columns of the value, keyed by null, and of each structure
+     *         next to the value, in order
+     */
+    private static Map<String, List<Column>> structures(List<Column> columns) {
+        Map<String, List<Column>> structures = new LinkedHashMap<>();
+        columns.forEach(column -> {
+            structures.computeIfAbsent(column.structure, (s) -> new ArrayList<>()).add(column);
+        });
+        return structures;
+    }
+
+    private static String[] labels(List<Column> columns) {
+        String[] labels = new String[columns.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = columns.get(i).label;
+        }
+        return labels;
+    }
+
+    private static Structure createStructure(List<Column> columns, boolean descriptor) {
+        NTTableBuilder ntTableBuilder = NTTable.createBuilder();
+        if (descriptor) {
+            ntTableBuilder.addDescriptor();
+        }
+        structures(columns).forEach((structure, structureColumns) -> {
+            if (structure == null) {
+                structureColumns.forEach(column -> {
+                    ntTableBuilder.addColumn(column.field, column.type);
+                });
+                return;
+            }
+            FieldBuilder fieldBuilder = FieldFactory.getFieldCreate().createFieldBuilder()
+                    .addArray("labels", ScalarType.pvString).addNestedStructure("value");
+            structureColumns.forEach(column -> {
+                fieldBuilder.addArray(column.field, column.type);
+            });
+            ntTableBuilder.add(structure, fieldBuilder.endNested().createStructure());
+        });
+        return ntTableBuilder.createStructure();
+    }
+}
@@ -0,0 +1,108 @@
+package org.epics.channelfinder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * An index of the channels of a {@link ChannelStore.Snapshot} by tag, one
+ * {@link ChannelBitmap} of the positions of the tagged channels per tag.
+ *
+ * The AND'ed clauses of the _tag of a query are evaluated as the intersection
+ * of the OR'ed bitmaps of the tags matching the patterns of each clause.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class TagIndex {
+
+    private final NavigableMap<String, ChannelBitmap> tags;
+
+    private TagIndex(NavigableMap<String, ChannelBitmap> tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * Builds the index from the tags of the channels added in ascending
+     * position order
+     */
+    public static class Builder {
+        private final Map<String, ChannelBitmap.Builder> tags = new TreeMap<>();
+
+        /**
+         * @param position - the position of the channel, not lower than the
+         *            positions of the previously added channels
+         * @param tag - a tag of the channel
+         * @return this builder
+         */
+        public Builder add(int position, String tag) {
+            tags.computeIfAbsent(tag, (t) -> new ChannelBitmap.Builder()).add(position);
+            return this;
+        }
+
+        /**
+         * @return the index of the added tags
+         */
+        public TagIndex build() {
+            NavigableMap<String, ChannelBitmap> bitmaps = new TreeMap<>();
+            tags.forEach((tag, builder) -> bitmaps.put(tag, builder.build()));
+            return new TagIndex(bitmaps);
+        }
+    }
+
+    /**
+     * @param tag - a tag name
+     * @return the positions of the channels with the tag
+     */
+    public ChannelBitmap get(String tag) {
+        return tags.getOrDefault(tag, ChannelBitmap.EMPTY);
+    }
+
+    /**
+     * @param clauses - the AND'ed clauses of OR'ed tag name patterns, not
+     *            empty
+     * @return the positions of the channels matching all the clauses
+     */
+    public ChannelBitmap match(List<List<String>> clauses) {
+        ChannelBitmap result = matchAny(clauses.get(0));
+        for (int i = 1; i < clauses.size() && !result.isEmpty(); i++) {
+            result = result.and(matchAny(clauses.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * @param patterns - the OR'ed tag name patterns
+     * @return the positions of the channels with a tag matching any pattern
+     */
+    private ChannelBitmap matchAny(List<String> patterns) {
+        ChannelBitmap result = ChannelBitmap.EMPTY;
+        for (String pattern : patterns) {
+            switch (QueryCompiler.patternType(pattern)) {
+            case TERM:
+                result = result.or(get(pattern));
+                break;
+            case PREFIX:
+                String prefix = pattern.substring(0, pattern.length() - 1);
+                for (ChannelBitmap bitmap : tags.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                    result = result.or(bitmap);
+                }
+                break;
+            case WILDCARD:
+            default:
+                Predicate<String> matcher = ChannelStore.pattern(pattern);
+                String literal = QueryCompiler.literalPrefix(pattern);
+                for (Map.Entry<String, ChannelBitmap> tag : tags
+                        .subMap(literal, true, literal + Character.MAX_VALUE, true).entrySet()) {
+                    if (matcher.test(tag.getKey())) {
+                        result = result.or(tag.getValue());
+                    }
+                }
+                break;
+            }
+        }
+        return result;
+    }
+}
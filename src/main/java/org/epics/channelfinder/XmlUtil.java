@@ -10,7 +10,10 @@ import javax.activation.UnsupportedDataTypeException;
 
 import org.epics.nt.NTTable;
 import org.epics.pvdata.pv.BooleanArrayData;
+import org.epics.pvdata.pv.IntArrayData;
 import org.epics.pvdata.pv.PVBooleanArray;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVIntArray;
 import org.epics.pvdata.pv.PVStringArray;
 import org.epics.pvdata.pv.PVStructure;
 import org.epics.pvdata.pv.ScalarType;
@@ -18,9 +21,52 @@ import org.epics.pvdata.pv.StringArrayData;
 
 public class XmlUtil {
 
+    private static int[] intColumn(NTTable table, String name) {
+        return intColumn((PVIntArray) table.getColumn(name));
+    }
+
+    private static int[] intColumn(PVIntArray array) {
+        IntArrayData data = new IntArrayData();
+        array.get(0, array.getLength(), data);
+        return Arrays.copyOfRange(data.data, data.offset, data.offset + array.getLength());
+    }
+
+    private static String[] stringColumn(PVStringArray array) {
+        StringArrayData data = new StringArrayData();
+        array.get(0, array.getLength(), data);
+        return Arrays.copyOfRange(data.data, data.offset, data.offset + array.getLength());
+    }
+
+    /**
+     * Add the properties and tags of the columns of the sparse structure next
+     * to the value of a table, the values and rows of the properties and the
+     * rows of the tags set on few channels
+     */
+    private static void parseSparse(PVStructure sparse, List<XmlChannel> channels) {
+        PVStructure value = sparse.getStructureField("value");
+        String[] labels = stringColumn(sparse.getSubField(PVStringArray.class, "labels"));
+        PVField[] fields = value.getPVFields();
+        for (int column = 0; column < fields.length; column++) {
+            String name = fields[column].getFieldName();
+            if (fields[column] instanceof PVStringArray) {
+                String[] values = stringColumn((PVStringArray) fields[column]);
+                int[] rows = intColumn(value.getSubField(PVIntArray.class, name + "Rows"));
+                for (int i = 0; i < values.length; i++) {
+                    channels.get(rows[i]).getProperties().add(new XmlProperty(labels[column], null, values[i]));
+                }
+            } else if (name.startsWith("tag")) {
+                for (int row : intColumn((PVIntArray) fields[column])) {
+                    channels.get(row).getTags().add(new XmlTag(labels[column]));
+                }
+            }
+        }
+    }
+
     /**
      * A helper method to convert the the result of the channelfinder v4 service
-     * to the a list of {@link XmlChannel}
+     * to the a list of {@link XmlChannel}, the dense, sparse and dictionary
+     * formats of the table are supported, with the sparse columns and the
+     * dictionaries next to the value of the table
      * 
      * @param result - NTTable returned by the channelfinder service
      * @return list of channels
@@ -51,37 +97,86 @@ public class XmlUtil {
                 }
             }
             
-            for (String name : names) {
-                if(!name.equals("channelName") && !name.equals("owner")){
+            // the labels of the columns are the property and tag names, the
+            // sparse format names the fields of the columns by their position
+            String[] labels = names.toArray(new String[names.size()]);
+            if (table.getLabels() != null && table.getLabels().getLength() == names.size()) {
+                StringArrayData data = new StringArrayData();
+                table.getLabels().get(0, names.size(), data);
+                labels = data.data;
+            }
+            PVStructure dictionaries = result.getSubField(PVStructure.class, ChannelColumns.DICTIONARIES);
+
+            for (int column = 0; column < names.size(); column++) {
+                String name = names.get(column);
+                String label = labels[column];
+                if(!name.equals("channelName") && !name.equals("owner") && !name.equals("queryIndex")){
                     ScalarType type = table.getColumn(name).getScalarArray().getElementType();
                     if (type.equals(ScalarType.pvBoolean)){
                         PVBooleanArray array = (PVBooleanArray) table.getColumn(name);
                         BooleanArrayData data = new BooleanArrayData();
                         array.get(0, array.getLength(), data);
-                        List<Boolean> tag = new ArrayList<>(array.getLength());
                         for (int i = 0; i < array.getLength(); i++) {
-                            tag.add(data.data[i]);
                             if(data.data[i]){
-                                channels.get(i).getTags().add(new XmlTag(name));
+                                channels.get(i).getTags().add(new XmlTag(label));
                             }
                         }
                     }
                     else if (type.equals(ScalarType.pvString)) {
                         PVStringArray array = (PVStringArray) table.getColumn(name);
                         StringArrayData data = new StringArrayData();
-                        int len = array.get(0, array.getLength(), data);
-                        List<Optional<String>> list = Arrays.asList(data.data).stream().map(Optional::ofNullable)
-                                .collect(Collectors.toList());
-                        for (int i = 0; i < channels.size(); i++) {
-                            if (list.get(i).isPresent())
-                                channels.get(i).getProperties().add(new XmlProperty(name, null, list.get(i).get()));
+                        array.get(0, array.getLength(), data);
+                        for (int i = 0; i < array.getLength(); i++) {
+                            if (data.data[i] != null) {
+                                channels.get(i).getProperties().add(new XmlProperty(label, null, data.data[i]));
+                            }
+                        }
+                    }
+                    else if (type.equals(ScalarType.pvInt) && dictionaries != null && name.endsWith("Codes")) {
+                        // a dictionary encoded property, the index of the value of each row in the
+                        // distinct values of the dictionary of the property
+                        String[] dictionary = stringColumn(dictionaries.getSubField(PVStringArray.class,
+                                "value." + name.substring(0, name.length() - "Codes".length())));
+                        int[] codes = intColumn(table, name);
+                        for (int i = 0; i < codes.length; i++) {
+                            if (codes[i] >= 0) {
+                                channels.get(i).getProperties().add(new XmlProperty(label, null, dictionary[codes[i]]));
+                            }
                         }
                     }
                 }
             }
+            PVStructure sparse = result.getSubField(PVStructure.class, ChannelColumns.SPARSE);
+            if (sparse != null) {
+                parseSparse(sparse, channels);
+            }
             return channels;
         } else {
             throw new UnsupportedDataTypeException();
         }
     }
+
+    /**
+     * A helper method to convert the result of a batch request to the list of
+     * {@link XmlChannel} of each query of the batch
+     * 
+     * @param result - NTTable returned by the channelfinder service for a batch
+     * @param queries - the number of queries of the batch
+     * @return list of the channels of each query, in the order of the queries
+     * @throws Exception
+     */
+    public static List<List<XmlChannel>> parseBatch(PVStructure result, int queries) throws Exception {
+        List<XmlChannel> channels = parse(result);
+        List<List<XmlChannel>> batch = new ArrayList<>();
+        for (int i = 0; i < queries; i++) {
+            batch.add(new ArrayList<>());
+        }
+        if (!channels.isEmpty()) {
+            int[] queryIndex = intColumn(NTTable.wrap(result), "queryIndex");
+            for (int row = 0; row < channels.size(); row++) {
+                batch.get(queryIndex[row]).add(channels.get(row));
+            }
+        }
+        return batch;
+    }
 }
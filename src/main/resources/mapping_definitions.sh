@@ -50,6 +50,10 @@ curl -XPUT 'http://localhost:9200/channelfinder'
 curl -XPUT 'http://localhost:9200/channelfinder/_mapping/channel' -d'
 {
   "channel" : {
+    "_timestamp" : {
+      "enabled" : true,
+      "store" : true
+    },
     "properties" : {
       "name" : {
         "type" : "string",
@@ -31,17 +31,30 @@ public class AsyncServiceIT {
     
     @Test
     public void parallelTest() {
+        int queryCount = 1000;
+        long start = System.currentTimeMillis();
+        int failCounter = parallelQueries(ChannelFinderService.SERVICE_DESC, queryCount);
+        log.info("ChannelFinderService "+ queryCount +" query time: " + (System.currentTimeMillis() - start));
+        assertTrue("Failed to complete all Async queries reliably", failCounter<=0);
+    }
+
+    /**
+     * Execute the given number of random name and property queries in parallel against the service
+     * 
+     * @param service - the name of the service to query
+     * @param queryCount - the number of queries
+     * @return the number of failed queries
+     */
+    static int parallelQueries(String service, int queryCount) {
 
         List<Integer> tokens = Arrays.asList(1,2,5,10,20,50,100,500); 
 
-        int queryCount = 1000;
         final ExecutorService scheduler = Executors.newScheduledThreadPool(50);
         List<Future<Boolean>> futures = new ArrayList<>();
-        long start = System.currentTimeMillis();
         for (int i = 0; i < queryCount; i++) {
             futures.add(scheduler.submit(() -> {
 
-                RPCClientImpl client = new RPCClientImpl(ChannelFinderService.SERVICE_DESC);
+                RPCClientImpl client = new RPCClientImpl(service);
                 try {
                     String name_search_pattern = "SR*C"+String.format("%03d", ThreadLocalRandom.current().nextInt(1, numberOfCells))+"*";
                     String propName = "group" + ThreadLocalRandom.current().nextInt(9);
@@ -52,7 +65,7 @@ public class AsyncServiceIT {
                     NTURI uri = uriBuilder.create();
 
                     uri.getPVStructure().getStringField("scheme").put("pva");
-                    uri.getPVStructure().getStringField("path").put(ChannelFinderService.SERVICE_DESC);
+                    uri.getPVStructure().getStringField("path").put(service);
                     uri.getQuery().getStringField("_name").put(name_search_pattern);
                     uri.getQuery().getStringField(propName).put(String.valueOf(propValue));
 
@@ -97,9 +110,9 @@ public class AsyncServiceIT {
                 fail(e.getMessage());
             }
         }
+        scheduler.shutdown();
         log.info("Successfully complete: " + counter + " Failed: " + failCounter);
-        log.info("ChannelFinderService "+ queryCount +" query time: " + (System.currentTimeMillis() - start));
-        assertTrue("Failed to complete all Async queries reliably", failCounter<=0);
+        return failCounter;
     }
     
 }
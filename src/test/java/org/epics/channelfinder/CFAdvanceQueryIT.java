@@ -1,16 +1,31 @@
 package org.epics.channelfinder;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.epics.nt.NTTable;
 import org.epics.nt.NTURI;
 import org.epics.nt.NTURIBuilder;
 import org.epics.pvaccess.client.rpc.RPCClientImpl;
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.FieldBuilder;
+import org.epics.pvdata.pv.LongArrayData;
+import org.epics.pvdata.pv.PVBoolean;
+import org.epics.pvdata.pv.PVLong;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVStringArray;
 import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.StringArrayData;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -149,6 +164,106 @@ public class CFAdvanceQueryIT {
 
     }
 
+    @Test
+    public void countTest() {
+        NTURIBuilder uriBuilder = NTURI.createBuilder().addQueryString("_name").addQueryString("_size")
+                .addQueryString("_count").addQueryString("_exists");
+        NTURI uri = uriBuilder.create();
+
+        uri.getPVStructure().getStringField("scheme").put("pva");
+        uri.getPVStructure().getStringField("path").put(ChannelFinderService.SERVICE_DESC);
+        uri.getQuery().getStringField("_name").put("SR*");
+        uri.getQuery().getStringField("_size").put("all");
+
+        try {
+            int expected = XmlUtil.parse(client.request(uri.getPVStructure(), 10.0)).size();
+
+            uri.getQuery().getStringField("_count").put("true");
+            PVStructure result = client.request(uri.getPVStructure(), 3.0);
+            assertEquals("Count Test: _count should return the number of matching channels", expected,
+                    result.getSubField(PVLong.class, "value").get());
+
+            uri.getQuery().getStringField("_count").put("");
+            uri.getQuery().getStringField("_exists").put("true");
+            result = client.request(uri.getPVStructure(), 3.0);
+            assertTrue("Count Test: _exists should be true for matching channels",
+                    result.getSubField(PVBoolean.class, "value").get());
+
+            uri.getQuery().getStringField("_name").put("NoSuchChannel*");
+            result = client.request(uri.getPVStructure(), 3.0);
+            assertFalse("Count Test: _exists should be false when no channels match",
+                    result.getSubField(PVBoolean.class, "value").get());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void facetTest() {
+        NTURIBuilder uriBuilder = NTURI.createBuilder().addQueryString("_name").addQueryString("_size")
+                .addQueryString("_facet");
+        NTURI uri = uriBuilder.create();
+
+        uri.getPVStructure().getStringField("scheme").put("pva");
+        uri.getPVStructure().getStringField("path").put(ChannelFinderService.SERVICE_DESC);
+        uri.getQuery().getStringField("_name").put("SR*");
+        uri.getQuery().getStringField("_size").put("all");
+
+        try {
+            Map<String, Long> expected = XmlUtil.parse(client.request(uri.getPVStructure(), 10.0)).stream()
+                    .flatMap(channel -> channel.getProperties().stream())
+                    .filter(property -> property.getName().equals("cell"))
+                    .collect(Collectors.groupingBy(XmlProperty::getValue, Collectors.counting()));
+
+            uri.getQuery().getStringField("_facet").put("cell");
+            NTTable result = NTTable.wrap(client.request(uri.getPVStructure(), 3.0));
+            PVStringArray valueColumn = result.getColumn(PVStringArray.class, "value");
+            PVLongArray countColumn = result.getColumn(PVLongArray.class, "count");
+            StringArrayData values = new StringArrayData();
+            LongArrayData counts = new LongArrayData();
+            int length = valueColumn.get(0, valueColumn.getLength(), values);
+            countColumn.get(0, countColumn.getLength(), counts);
+            Map<String, Long> facets = new HashMap<>();
+            for (int i = 0; i < length; i++) {
+                facets.put(values.data[i], counts.data[i]);
+            }
+            assertEquals("Facet Test: _facet should count the channels per property value", expected, facets);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void batchTest() {
+        String[] patterns = { "SR*C001*", "NoSuchChannel*", "SR*C002*" };
+        NTURIBuilder uriBuilder = NTURI.createBuilder().addQueryString("_name");
+        NTURI uri = uriBuilder.create();
+        uri.getPVStructure().getStringField("scheme").put("pva");
+        uri.getPVStructure().getStringField("path").put(ChannelFinderService.SERVICE_DESC);
+
+        FieldBuilder queries = FieldFactory.getFieldCreate().createFieldBuilder()
+                .addNestedStructure(ChannelBatch.QUERIES);
+        for (int i = 0; i < patterns.length; i++) {
+            queries.addNestedStructure("q" + i).add("_name", ScalarType.pvString).endNested();
+        }
+        PVStructure batch = PVDataFactory.getPVDataCreate().createPVStructure(queries.endNested().createStructure());
+        for (int i = 0; i < patterns.length; i++) {
+            batch.getStructureField(ChannelBatch.QUERIES).getStructureField("q" + i).getStringField("_name")
+                    .put(patterns[i]);
+        }
+
+        try {
+            List<List<XmlChannel>> result = XmlUtil.parseBatch(client.request(batch, 3.0), patterns.length);
+            for (int i = 0; i < patterns.length; i++) {
+                uri.getQuery().getStringField("_name").put(patterns[i]);
+                assertEquals("Batch Test: the batch should return the channels of each query",
+                        XmlUtil.parse(client.request(uri.getPVStructure(), 3.0)), result.get(i));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 
      */
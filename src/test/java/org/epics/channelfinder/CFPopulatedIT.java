@@ -17,7 +17,8 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({  
                      CFAdvanceQueryIT.class,
-                     AsyncServiceIT.class
+                     AsyncServiceIT.class,
+                     StreamServiceIT.class
                        })
 public class CFPopulatedIT {
 
@@ -0,0 +1,68 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the normalization of batch queries
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelBatchTest {
+
+    private static Map<String, String> parameters(String... keyValues) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.put(keyValues[i], keyValues[i + 1]);
+        }
+        return parameters;
+    }
+
+    /**
+     * Check that each query of the batch is normalized and that the order of
+     * the queries is kept
+     */
+    @Test
+    public void canonical() {
+        ChannelBatch batch = ChannelBatch.of(
+                Arrays.asList(parameters("_name", "SR*", "_tag", "group"), parameters("_name", "BR*")), "");
+        assertEquals(Arrays.asList(ChannelQuery.of(parameters("_tag", "group", "_name", "SR*")),
+                ChannelQuery.of(parameters("_name", "BR*"))), batch.getQueries());
+        assertEquals(ChannelQuery.Format.DENSE, batch.getFormat());
+
+        assertEquals(batch, ChannelBatch.of(
+                Arrays.asList(parameters("_tag", "group", "_name", "SR*"), parameters("_name", "BR*")), "dense"));
+        assertNotEquals(batch, ChannelBatch.of(
+                Arrays.asList(parameters("_name", "BR*"), parameters("_name", "SR*", "_tag", "group")), ""));
+        assertNotEquals(batch, ChannelBatch.of(
+                Arrays.asList(parameters("_name", "SR*", "_tag", "group"), parameters("_name", "BR*")), "sparse"));
+        assertNotEquals(batch.toString(), batch.getQueries().get(0).toString());
+    }
+
+    /**
+     * Check that only channel queries can be batched
+     */
+    @Test
+    public void channelQueriesOnly() {
+        List<Map<String, String>> rejected = Arrays.asList(parameters("_name", "SR*", "_count", "true"),
+                parameters("_name", "SR*", "_facet", "cell"), parameters("_name", "SR*", "_cursor", ""));
+        for (Map<String, String> query : rejected) {
+            try {
+                ChannelBatch.of(Collections.singletonList(query), "");
+                fail("Expected the batch of " + query + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
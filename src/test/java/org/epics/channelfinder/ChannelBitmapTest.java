@@ -0,0 +1,144 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the compressed bitmaps of channel positions
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelBitmapTest {
+
+    private static final int SIZE = 300000;
+
+    /**
+     * Sets of positions across several chunks held in array, bitset and run
+     * containers
+     */
+    private static List<BitSet> sets() {
+        Random random = new Random(42);
+        List<BitSet> sets = new ArrayList<>();
+        BitSet sparse = new BitSet();
+        BitSet dense = new BitSet();
+        BitSet runs = new BitSet();
+        BitSet mixed = new BitSet();
+        for (int i = 0; i < SIZE; i++) {
+            if (random.nextInt(100) == 0) {
+                sparse.set(i);
+            }
+            if (random.nextInt(2) == 0) {
+                dense.set(i);
+            }
+            if ((i / 1000) % 3 != 0) {
+                runs.set(i);
+            }
+            int chunk = i >>> 16;
+            if (chunk == 0 ? random.nextInt(50) == 0 : chunk == 1 ? random.nextBoolean() : (i / 5000) % 2 == 0) {
+                mixed.set(i);
+            }
+        }
+        BitSet all = new BitSet();
+        all.set(0, SIZE);
+        sets.add(new BitSet());
+        sets.add(sparse);
+        sets.add(dense);
+        sets.add(runs);
+        sets.add(mixed);
+        sets.add(all);
+        return sets;
+    }
+
+    private static ChannelBitmap bitmap(BitSet set) {
+        return ChannelBitmap.of(set.stream().toArray());
+    }
+
+    /**
+     * Check that the smallest container is used for each chunk
+     */
+    @Test
+    public void containers() {
+        List<BitSet> sets = sets();
+        assertEquals("AAAAA", bitmap(sets.get(1)).containerKinds());
+        assertEquals("BBBBB", bitmap(sets.get(2)).containerKinds());
+        assertEquals("RRRRR", bitmap(sets.get(3)).containerKinds());
+        assertEquals("ABRRR", bitmap(sets.get(4)).containerKinds());
+        assertEquals("RRRRR", bitmap(sets.get(5)).containerKinds());
+        assertEquals(bitmap(sets.get(5)).containerKinds(), ChannelBitmap.range(0, SIZE).containerKinds());
+        assertEquals("", ChannelBitmap.EMPTY.containerKinds());
+    }
+
+    /**
+     * Check the positions, cardinality and membership of each set and of the
+     * intersection and union of each pair of sets
+     */
+    @Test
+    public void andOr() {
+        List<BitSet> sets = sets();
+        for (BitSet a : sets) {
+            check(a, bitmap(a));
+            for (BitSet b : sets) {
+                BitSet and = (BitSet) a.clone();
+                and.and(b);
+                check(and, bitmap(a).and(bitmap(b)));
+                BitSet or = (BitSet) a.clone();
+                or.or(b);
+                check(or, bitmap(a).or(bitmap(b)));
+            }
+        }
+        BitSet range = new BitSet();
+        range.set(70000, 200001);
+        check(range, ChannelBitmap.range(70000, 200001));
+    }
+
+    private static void check(BitSet expected, ChannelBitmap bitmap) {
+        assertArrayEquals(expected.stream().toArray(), bitmap.toArray());
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        assertEquals(expected.isEmpty(), bitmap.isEmpty());
+        for (int position : new int[] { 0, 999, 1000, 65535, 65536, 131071, 250000, SIZE - 1 }) {
+            assertEquals(expected.get(position), bitmap.contains(position));
+        }
+    }
+
+    /**
+     * Check that a visit starts at the requested position and stops when the
+     * visitor returns false
+     */
+    @Test
+    public void forEach() {
+        for (BitSet set : sets()) {
+            ChannelBitmap bitmap = bitmap(set);
+            for (int from : new int[] { 0, 1, 65535, 65536, 100001, SIZE }) {
+                List<Integer> visited = new ArrayList<>();
+                bitmap.forEach(from, (position) -> {
+                    visited.add(position);
+                    return visited.size() < 10;
+                });
+                List<Integer> expected = new ArrayList<>();
+                for (int i = set.nextSetBit(from); i >= 0 && expected.size() < 10; i = set.nextSetBit(i + 1)) {
+                    expected.add(i);
+                }
+                assertEquals(expected, visited);
+            }
+        }
+    }
+
+    /**
+     * Check that repeated positions are added once
+     */
+    @Test
+    public void repeated() {
+        ChannelBitmap bitmap = new ChannelBitmap.Builder().add(1).add(1).add(2).add(70000).add(70000).build();
+        assertArrayEquals(new int[] { 1, 2, 70000 }, bitmap.toArray());
+        assertTrue(bitmap.contains(70000));
+    }
+}
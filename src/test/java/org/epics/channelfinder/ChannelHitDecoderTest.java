@@ -0,0 +1,111 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.junit.Test;
+
+/**
+ * Unit test for the streaming decoding of channel documents
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelHitDecoderTest {
+
+    private static class RecordingSink implements ChannelHitDecoder.ColumnSink {
+        private final List<String> fields = new ArrayList<>();
+
+        @Override
+        public void name(int row, String name) {
+            fields.add(row + " name " + name);
+        }
+
+        @Override
+        public void owner(int row, String owner) {
+            fields.add(row + " owner " + owner);
+        }
+
+        @Override
+        public void property(int row, String name, String value) {
+            fields.add(row + " property " + name + "=" + value);
+        }
+
+        @Override
+        public void tag(int row, String name) {
+            fields.add(row + " tag " + name);
+        }
+    }
+
+    /**
+     * Check that a channel serialized by the service mapper is decoded
+     */
+    @Test
+    public void decodeChannel() throws IOException {
+        XmlChannel channel = new XmlChannel("SR:C001:DP1", "owner",
+                new HashSet<>(Arrays.asList(new XmlProperty("cell", "powner", "001"))),
+                new HashSet<>(Arrays.asList(new XmlTag("group8_50", "towner"))));
+        byte[] source = ChannelFinderService.channelMapper.writeValueAsBytes(channel);
+
+        RecordingSink sink = new RecordingSink();
+        ChannelHitDecoder.decode(source, 0, source.length, 3, sink);
+        assertEquals(Arrays.asList("3 name SR:C001:DP1", "3 owner owner", "3 property cell=001", "3 tag group8_50"),
+                sink.fields);
+    }
+
+    /**
+     * Check that unknown fields, missing values and the field order do not
+     * affect the decoding
+     */
+    @Test
+    public void decodeFieldOrder() throws IOException {
+        String json = "{\"script\":{\"a\":[1,2]},\"tags\":[{\"owner\":\"o\",\"channels\":[],\"name\":\"t1\"}],"
+                + "\"properties\":[{\"value\":\"v1\",\"name\":\"p1\"},{\"name\":\"p2\",\"value\":null}],"
+                + "\"owner\":null,\"name\":\"ch1\"}";
+        byte[] source = ("xx" + json).getBytes(StandardCharsets.UTF_8);
+
+        RecordingSink sink = new RecordingSink();
+        ChannelHitDecoder.decode(source, 2, source.length - 2, 0, sink);
+        assertEquals(Arrays.asList("0 tag t1", "0 property p1=v1", "0 property p2=null", "0 owner null",
+                "0 name ch1"), sink.fields);
+    }
+
+    /**
+     * Check that decoding the hits in parallel chunks creates the same result
+     * as decoding them sequentially, including properties and tags which only
+     * appear in some of the chunks
+     */
+    @Test
+    public void decodeChunks() throws IOException {
+        SearchHit[] hits = new SearchHit[25];
+        for (int i = 0; i < hits.length; i++) {
+            XmlChannel channel = new XmlChannel("ch" + i, "owner",
+                    new HashSet<>(Arrays.asList(new XmlProperty("p" + (i / 10), "powner", String.valueOf(i)))),
+                    new HashSet<>(Arrays.asList(new XmlTag("t" + (i % 3), "towner"))));
+            hits[i] = new InternalSearchHit(i, channel.getName(), new StringText("cf_type"), null)
+                    .sourceRef(new BytesArray(ChannelFinderService.channelMapper.writeValueAsBytes(channel)));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ChannelColumns sequential = new ChannelHitDecoder(pool, hits.length).decode(hits,
+                    Collections.emptySet());
+            ChannelColumns chunked = new ChannelHitDecoder(pool, 4).decode(hits, Collections.emptySet());
+            assertEquals(sequential.size(), chunked.size());
+            assertEquals(sequential.createTable().getPVStructure(), chunked.createTable().getPVStructure());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the normalization of queries
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelQueryTest {
+
+    private static ChannelQuery query(String... keyValues) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.put(keyValues[i], keyValues[i + 1]);
+        }
+        return ChannelQuery.of(parameters);
+    }
+
+    /**
+     * Check that equivalent queries have the same canonical form and fingerprint
+     */
+    @Test
+    public void equivalentQueries() {
+        ChannelQuery query1 = query("_name", "A*|B*", "_tag", "t1 & t2|t3", "group1", "10|2");
+        ChannelQuery query2 = query("group1", " 2 | 10 ", "_tag", "t3|t2&t1&t1", "_name", " B*|A*|A* ");
+        assertEquals(query1, query2);
+        assertEquals(query1.toString(), query2.toString());
+        assertEquals(query1.getFingerprint(), query2.getFingerprint());
+
+        assertEquals(Arrays.asList("A*", "B*"), query2.getNames());
+        assertEquals(Arrays.asList(Arrays.asList("t1"), Arrays.asList("t2", "t3")), query2.getTags());
+        assertEquals(Arrays.asList("10", "2"), query2.getProperties().get("group1"));
+    }
+
+    /**
+     * Check that queries which select different channels are not equal
+     */
+    @Test
+    public void distinctQueries() {
+        assertNotEquals(query("_name", "A*"), query("_name", "B*"));
+        assertNotEquals(query("_name", "A*"), query("_tag", "A*"));
+        assertNotEquals(query("p", "a=b"), query("p=a", "b"));
+        assertNotEquals(query("_name", "A*", "_size", "10"), query("_name", "A*", "_size", "20"));
+        assertNotEquals(query("_name", "A*").getFingerprint(), query("_name", "B*").getFingerprint());
+    }
+
+    /**
+     * Check the parsing of the pagination and filter keywords
+     */
+    @Test
+    public void pagination() {
+        ChannelQuery query = query("_name", "*");
+        assertEquals(ChannelQuery.DEFAULT_SIZE, query.getSize());
+        assertEquals(0, query.getFrom());
+        assertFalse(query.getSortField().isPresent());
+
+        query = query("_name", "*", "_size", "10", "_from", "20", "_filter", "cell, type");
+        assertEquals(10, query.getSize());
+        assertEquals(20, query.getFrom());
+        assertTrue(query.getSortField().isPresent());
+        assertEquals(2, query.getFilter().size());
+        assertTrue(query.getFilter().contains("type"));
+
+        query = query("_name", "*", "_size", "all");
+        assertEquals(ChannelQuery.ALL, query.getSize());
+        assertFalse(query.getSortField().isPresent());
+        assertNotEquals(query("_name", "*"), query);
+
+        query = query("_name", "*", "_size", "ten");
+        assertEquals(ChannelQuery.DEFAULT_SIZE, query.getSize());
+        assertFalse(query.getSortField().isPresent());
+    }
+
+    /**
+     * Check the parsing of the result format
+     */
+    @Test
+    public void format() {
+        assertEquals(ChannelQuery.Format.DENSE, query("_name", "*").getFormat());
+        assertEquals(ChannelQuery.Format.DENSE, query("_name", "*", "_format", "columns").getFormat());
+        ChannelQuery sparse = query("_name", "*", "_format", " Sparse ");
+        assertEquals(ChannelQuery.Format.SPARSE, sparse.getFormat());
+        assertNotEquals(query("_name", "*"), sparse);
+        assertEquals(query("_name", "*"), query("_name", "*", "_format", "dense"));
+        assertEquals(ChannelQuery.Format.DICTIONARY, query("_name", "*", "_format", "dictionary").getFormat());
+        assertNotEquals(sparse, query("_name", "*", "_format", "dictionary"));
+    }
+
+    /**
+     * Check the parsing of the cursor and that _from is ignored by cursor
+     * paginated queries
+     */
+    @Test
+    public void cursor() {
+        ChannelQuery first = query("_name", "*", "_size", "100", "_from", "20", "_cursor", "");
+        assertTrue(first.isPaged());
+        assertFalse(first.getCursor().isPresent());
+        assertEquals(0, first.getFrom());
+        assertEquals("name", first.getSortField().get());
+        assertNotEquals(query("_name", "*", "_size", "100"), first);
+
+        ChannelCursor cursor = new ChannelCursor("SR:C001:DP1 & x=y", "channel#SR:C001:DP1 & x=y");
+        String token = cursor.encode();
+        assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+        ChannelQuery next = query("_name", "*", "_size", "100", "_cursor", token);
+        assertTrue(next.isPaged());
+        assertEquals(cursor.getName(), next.getCursor().get().getName());
+        assertEquals(cursor.getUid(), next.getCursor().get().getUid());
+        assertNotEquals(first, next);
+        assertFalse(query("_name", "*").isPaged());
+    }
+
+    /**
+     * Check that an invalid cursor fails the query
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCursor() {
+        query("_name", "*", "_cursor", "bm90IGEgY3Vyc29y");
+    }
+
+    /**
+     * Check the parsing of the count and exists modes
+     */
+    @Test
+    public void mode() {
+        assertEquals(ChannelQuery.Mode.CHANNELS, query("_name", "*").getMode());
+        assertEquals(ChannelQuery.Mode.CHANNELS, query("_name", "*", "_count", "false").getMode());
+        assertEquals(ChannelQuery.Mode.COUNT, query("_name", "*", "_count", "true").getMode());
+        assertEquals(ChannelQuery.Mode.EXISTS, query("_name", "*", "_exists", "true").getMode());
+        assertNotEquals(query("_name", "*"), query("_name", "*", "_count", "true"));
+        assertNotEquals(query("_name", "*", "_exists", "true"), query("_name", "*", "_count", "true"));
+    }
+
+    /**
+     * Check that the facets are parsed in a canonical order
+     */
+    @Test
+    public void facets() {
+        ChannelQuery query = query("_name", "*", "_facet", "cell, _tag,,group");
+        assertEquals(ChannelQuery.Mode.FACETS, query.getMode());
+        assertEquals(Arrays.asList("_tag", "cell", "group"), query.getFacets());
+        assertEquals(query, query("_name", "*", "_facet", "group,cell,_tag"));
+        assertNotEquals(query, query("_name", "*", "_facet", "group,cell"));
+        assertEquals(ChannelQuery.Mode.CHANNELS, query("_name", "*", "_facet", " ").getMode());
+    }
+}
@@ -0,0 +1,186 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.epics.channelfinder.ChannelStore.Snapshot;
+import org.epics.channelfinder.ChannelStore.StoredChannel;
+import org.junit.Test;
+
+/**
+ * Unit test for answering queries from a snapshot of the channel store
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class ChannelStoreTest {
+
+    /**
+     * 20 channels SR:C000:DP0 ... SR:C019:DP1, inserted in reverse order, with
+     * a cell property of the channel number modulo 3, a group tag on every
+     * channel and an even tag on the even channels
+     */
+    private static Snapshot snapshot() {
+        List<StoredChannel> channels = new ArrayList<>();
+        for (int i = 19; i >= 0; i--) {
+            String name = String.format("SR:C%03d:DP%d", i, i % 2);
+            String[] tags = i % 2 == 0 ? new String[] { "group", "even" } : new String[] { "group" };
+            channels.add(new StoredChannel("channel#" + name, name, "owner", new String[] { "cell" },
+                    new String[] { String.valueOf(i % 3) }, tags));
+        }
+        return new Snapshot(channels, 0, 0, -1);
+    }
+
+    private static ChannelQuery query(String... keyValues) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.put(keyValues[i], keyValues[i + 1]);
+        }
+        return ChannelQuery.of(parameters);
+    }
+
+    private static List<String> names(Snapshot snapshot, ChannelQuery query) {
+        int[] matches = snapshot.match(query, Integer.MAX_VALUE);
+        ChannelColumns columns = snapshot.columns(matches, query.getFrom(), query.getSize(), query.getFilter());
+        List<String> names = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            names.add(columns.getName(row));
+        }
+        return names;
+    }
+
+    /**
+     * Check the term, prefix and wildcard patterns
+     */
+    @Test
+    public void patterns() {
+        assertTrue(ChannelStore.pattern("SR:C001").test("SR:C001"));
+        assertFalse(ChannelStore.pattern("SR:C001").test("SR:C0010"));
+        assertTrue(ChannelStore.pattern("SR:*").test("SR:C001"));
+        assertFalse(ChannelStore.pattern("SR:*").test("BR:C001"));
+        assertTrue(ChannelStore.pattern("*C00?:DP*").test("SR:C001:DP1"));
+        assertFalse(ChannelStore.pattern("*C00?:DP*").test("SR:C0011:DP1"));
+        assertTrue(ChannelStore.pattern("a\\*b").test("a*b"));
+        assertFalse(ChannelStore.pattern("a\\*b").test("axb"));
+        assertTrue(ChannelStore.pattern("a.b(*").test("a.b(c"));
+    }
+
+    /**
+     * Check that the name, tag and property clauses are AND'ed and the
+     * patterns of a clause OR'ed, and that the channels are returned in name
+     * order
+     */
+    @Test
+    public void match() {
+        Snapshot snapshot = snapshot();
+        assertEquals(20, snapshot.size());
+        assertEquals(Arrays.asList("SR:C000:DP0", "SR:C001:DP1", "SR:C002:DP0"),
+                names(snapshot, query("_name", "SR:C000:DP0|SR:C001*|*C002:DP?")));
+        assertEquals(Arrays.asList("SR:C000:DP0", "SR:C006:DP0", "SR:C012:DP0", "SR:C018:DP0"),
+                names(snapshot, query("_name", "SR*", "_tag", "even & group", "cell", "0")));
+        assertEquals(Arrays.asList("SR:C001:DP1", "SR:C003:DP1", "SR:C004:DP0"),
+                names(snapshot, query("_name", "SR:C00*", "cell", "1|0", "_tag", "g*", "_size", "3", "_from", "1")));
+        assertEquals(Collections.emptyList(), names(snapshot, query("_tag", "none")));
+        assertEquals(Collections.emptyList(), names(snapshot, query("cell", "0", "_from", "100")));
+    }
+
+    /**
+     * Check that a page of a cursor paginated query starts after the cursor
+     * and that the matches are limited
+     */
+    @Test
+    public void cursor() {
+        Snapshot snapshot = snapshot();
+        int[] first = snapshot.match(query("_tag", "even", "_cursor", ""), 3);
+        assertEquals(3, first.length);
+        String last = snapshot.columns(first, 0, 3, Collections.emptySet()).getName(2);
+        assertEquals("SR:C004:DP0", last);
+
+        ChannelCursor cursor = new ChannelCursor(last, snapshot.getUid(first[2]));
+        assertEquals(Arrays.asList("SR:C006:DP0", "SR:C008:DP0"),
+                names(snapshot, query("_tag", "even", "_cursor", cursor.encode(), "_size", "2")));
+        assertArrayEquals(new int[] { first[0] }, snapshot.match(query("_tag", "even"), 1));
+    }
+
+    /**
+     * Check that the facets are counted in descending count then value order
+     */
+    @Test
+    public void facets() {
+        Snapshot snapshot = snapshot();
+        ChannelQuery query = query("_name", "SR*", "_facet", "cell,_tag");
+        List<Map<String, Long>> facets = snapshot.facets(query.getFacets(),
+                snapshot.match(query, Integer.MAX_VALUE));
+        assertEquals(ChannelQuery.TAG_FACET, query.getFacets().get(0));
+        assertEquals(Arrays.asList("group", "even"), new ArrayList<>(facets.get(0).keySet()));
+        assertEquals(Arrays.asList(20L, 10L), new ArrayList<>(facets.get(0).values()));
+        assertEquals(Arrays.asList("0", "1", "2"), new ArrayList<>(facets.get(1).keySet()));
+        assertEquals(Arrays.asList(7L, 7L, 6L), new ArrayList<>(facets.get(1).values()));
+    }
+
+    /**
+     * Check that the columns of matches spanning several blocks of the front
+     * coded names hold the names of the matching channels
+     */
+    @Test
+    public void columnsAcrossBlocks() {
+        List<StoredChannel> channels = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String name = String.format("BR:C%03d-BPM", i);
+            String[] tags = i % 7 == 0 ? new String[] { "seventh" } : new String[] {};
+            channels.add(new StoredChannel("channel#" + name, name, "owner", new String[] {}, new String[] {},
+                    tags));
+            if (i % 7 == 0 && i >= 10) {
+                expected.add(name);
+            }
+        }
+        Snapshot snapshot = new Snapshot(channels, 0, 0, -1);
+        assertEquals(expected, names(snapshot, query("_tag", "seventh", "_from", "2")));
+        assertEquals(Arrays.asList("BR:C014-BPM", "BR:C015-BPM", "BR:C016-BPM", "BR:C017-BPM"),
+                names(snapshot, query("_name", "BR:C01?-BPM", "_from", "4", "_size", "4")));
+    }
+
+    /**
+     * Check that the channels of a pull replace the channels with the same
+     * uid and are found in name order, whether they are kept in the delta or
+     * merged into the base
+     */
+    @Test
+    public void pull() {
+        List<StoredChannel> pulled = Arrays.asList(
+                new StoredChannel("channel#SR:C004:DP0", "SR:C004:DP0", "owner", new String[] { "cell" },
+                        new String[] { "9" }, new String[] { "group" }),
+                new StoredChannel("channel#SR:C004:DP5", "SR:C004:DP5", "owner", new String[] { "cell" },
+                        new String[] { "0" }, new String[] { "group", "even" }));
+        for (int mergeThreshold : new int[] { 100, 0 }) {
+            Snapshot snapshot = snapshot().apply(pulled, 1, 0, -1, mergeThreshold).apply(pulled, 2, 0, -1,
+                    mergeThreshold);
+            assertEquals(21, snapshot.size());
+            assertEquals(Arrays.asList("SR:C000:DP0", "SR:C002:DP0", "SR:C004:DP5", "SR:C006:DP0"),
+                    names(snapshot, query("_tag", "even", "_size", "4")));
+            assertEquals(Arrays.asList("SR:C004:DP0"), names(snapshot, query("cell", "9")));
+            assertEquals(Arrays.asList("SR:C003:DP1", "SR:C004:DP0", "SR:C004:DP5", "SR:C005:DP1"),
+                    names(snapshot, query("_name", "SR:C00[345]*|SR:C003*|SR:C004*|SR:C005*")));
+
+            ChannelCursor cursor = new ChannelCursor("SR:C002:DP0", "channel#SR:C002:DP0");
+            assertEquals(Arrays.asList("SR:C004:DP5", "SR:C006:DP0"),
+                    names(snapshot, query("_tag", "even", "_cursor", cursor.encode(), "_size", "2")));
+
+            ChannelQuery query = query("_name", "SR*", "_facet", "cell");
+            Map<String, Long> cells = snapshot.facets(query.getFacets(), snapshot.match(query, Integer.MAX_VALUE))
+                    .get(0);
+            assertEquals(Arrays.asList("0", "1", "2", "9"), new ArrayList<>(cells.keySet()));
+            assertEquals(Arrays.asList(8L, 6L, 6L, 1L), new ArrayList<>(cells.values()));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the dictionary compressed channel storage
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class CompactChannelsTest {
+
+    /**
+     * Check the accessors and the read-only views of the stored channels
+     */
+    @Test
+    public void channels() {
+        CompactChannels channels = new CompactChannels.Builder()
+                .add("channel#SR:C001", "SR:C001", "cf", new String[] { "cell", "type" },
+                        new String[] { "1", null }, new String[] { "group", "even" })
+                .add("channel#renamed", "SR:C002", null, new String[] {}, new String[] {}, new String[] {})
+                .add("channel#SR:C003", "SR:C003", "cf", new String[] { "cell" }, new String[] { "1" },
+                        new String[] { "group" })
+                .build();
+
+        assertEquals(3, channels.size());
+        assertEquals("SR:C001", channels.getName(0));
+        assertEquals("channel#SR:C001", channels.getUid(0));
+        assertEquals("channel#renamed", channels.getUid(1));
+        assertEquals("cf", channels.getOwner(0));
+        assertNull(channels.getOwner(1));
+        assertEquals(2, channels.getPropertyCount(0));
+        assertEquals("1", channels.getProperty(0, "cell"));
+        assertNull(channels.getProperty(0, "type"));
+        assertNull(channels.getProperty(1, "cell"));
+        assertEquals(0, channels.getTagCount(1));
+        assertEquals(2, channels.getTagCount(0));
+        assertEquals("even", channels.getTag(0, 1));
+        assertEquals("group", channels.getTag(2, 0));
+
+        XmlChannel channel = channels.getChannel(0);
+        assertEquals("SR:C001", channel.getName());
+        assertEquals("cf", channel.getOwner());
+        assertEquals(new HashSet<>(Arrays.asList(new XmlTag("group"), new XmlTag("even"))), channel.getTags());
+        assertEquals(2, channel.getProperties().size());
+    }
+
+    /**
+     * Check that the views can not modify the storage
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnly() {
+        CompactChannels channels = new CompactChannels.Builder()
+                .add("channel#SR:C001", "SR:C001", "cf", new String[] {}, new String[] {}, new String[] {})
+                .build();
+        channels.getChannel(0).getTags().add(new XmlTag("group"));
+    }
+}
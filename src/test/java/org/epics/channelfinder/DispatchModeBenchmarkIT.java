@@ -0,0 +1,67 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.epics.channelfinder.ChannelFinderService.ChannelFinderServiceImpl;
+import org.epics.channelfinder.ChannelFinderService.ChannelFinderServiceImpl.DispatchMode;
+import org.epics.channelfinder.example.PopulateExampleDb;
+import org.epics.pvaccess.server.rpc.RPCServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A benchmark comparing the worker pool and virtual thread dispatch modes
+ * using the {@link AsyncServiceIT} workload.
+ * 
+ * The virtual thread mode requires the tests to be run on java 21 or above,
+ * on older jvms it falls back to the worker pool.
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class DispatchModeBenchmarkIT {
+
+    private static Logger log = Logger.getLogger(DispatchModeBenchmarkIT.class.getCanonicalName());
+
+    private static final int queryCount = 5000;
+
+    @BeforeClass
+    public static void setup() {
+        PopulateExampleDb.createDB(2);
+    }
+
+    @AfterClass
+    public static void cleanupDB() {
+        PopulateExampleDb.cleanupDB();
+    }
+
+    @Test
+    public void compareDispatchModes() throws Exception {
+        RPCServer server = new RPCServer();
+        try {
+            for (DispatchMode mode : Arrays.asList(DispatchMode.POOL, DispatchMode.VIRTUAL)) {
+                String service = "cfService:benchmark:" + mode.name().toLowerCase();
+                ChannelFinderServiceImpl impl = new ChannelFinderServiceImpl(mode);
+                server.registerService(service, impl);
+                try {
+                    // warm up
+                    AsyncServiceIT.parallelQueries(service, 100);
+
+                    long start = System.currentTimeMillis();
+                    int failCounter = AsyncServiceIT.parallelQueries(service, queryCount);
+                    log.info(mode + " dispatch " + queryCount + " query time: " + (System.currentTimeMillis() - start));
+                    assertTrue("Failed to complete all queries with dispatch mode " + mode, failCounter <= 0);
+                } finally {
+                    server.unregisterService(service);
+                    impl.shutdown();
+                }
+            }
+        } finally {
+            server.destroy();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the front coded channel names
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class FrontCodedNamesTest {
+
+    /**
+     * 100 names SR:C000-BPM0 ... SR:C049-BPM1, more than one block, with a
+     * duplicate of the first name of the second block
+     */
+    private static List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 2; j++) {
+                names.add(String.format("SR:C%03d-BPM%d", i, j));
+            }
+        }
+        names.add(FrontCodedNames.BLOCK, names.get(FrontCodedNames.BLOCK));
+        return names;
+    }
+
+    /**
+     * Check that the names are decoded, iterated and found in order
+     */
+    @Test
+    public void decode() {
+        List<String> names = names();
+        FrontCodedNames.Builder builder = new FrontCodedNames.Builder();
+        names.forEach(builder::add);
+        FrontCodedNames coded = builder.build();
+
+        assertEquals(names.size(), coded.size());
+        List<String> decoded = new ArrayList<>();
+        coded.forEach((name, position) -> decoded.add(name));
+        assertEquals(names, decoded);
+        for (int position = 0; position < names.size(); position++) {
+            assertEquals(names.get(position), coded.get(position));
+            String name = names.get(position);
+            assertEquals(names.indexOf(name), coded.lowerBound(name));
+            assertEquals(names.lastIndexOf(name) + 1, coded.upperBound(name));
+        }
+        assertEquals(0, coded.lowerBound(""));
+        assertEquals(0, coded.upperBound("A"));
+        assertEquals(names.size(), coded.lowerBound("T"));
+        assertEquals(2, coded.lowerBound("SR:C001"));
+        assertEquals(4, coded.upperBound("SR:C001" + Character.MAX_VALUE));
+    }
+
+    /**
+     * Check that a cursor decodes ascending positions within and across
+     * blocks, and restarts on a lower position
+     */
+    @Test
+    public void cursor() {
+        List<String> names = names();
+        FrontCodedNames.Builder builder = new FrontCodedNames.Builder();
+        names.forEach(builder::add);
+        FrontCodedNames.Cursor cursor = builder.build().cursor();
+        for (int position : new int[] { 1, 3, 3, 15, 16, 17, 40, 70, 100, 2, 33 }) {
+            assertEquals(names.get(position), cursor.get(position));
+        }
+    }
+
+    /**
+     * Check that names must be added in order
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void order() {
+        new FrontCodedNames.Builder().add("SR:C001").add("SR:C000");
+    }
+}
@@ -0,0 +1,46 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the selection of the candidates of name patterns on the name
+ * index
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class NameIndexTest {
+
+    private static final String[] NAMES = { "BR:C01-BPM1", "BR:C01-BPM1", "BR:C02-BPM1", "SR:C001-BPM1",
+            "SR:C001-MG1", "SR:C002-BPM1", "SR:C1*", "XF:ID" };
+
+    private static NameIndex index() {
+        FrontCodedNames.Builder builder = new FrontCodedNames.Builder();
+        for (String name : NAMES) {
+            builder.add(name);
+        }
+        return NameIndex.of(builder.build());
+    }
+
+    /**
+     * Check the candidates of terms, prefixes and infix patterns, which must
+     * include every match
+     */
+    @Test
+    public void candidates() {
+        NameIndex index = index();
+        assertArrayEquals(new int[] { 0, 1 }, index.candidates(Arrays.asList("BR:C01-BPM1")).toArray());
+        assertArrayEquals(new int[] {}, index.candidates(Arrays.asList("BR:C01")).toArray());
+        assertArrayEquals(new int[] { 3, 4, 5, 6 }, index.candidates(Arrays.asList("SR*")).toArray());
+        assertArrayEquals(new int[] { 3, 4 }, index.candidates(Arrays.asList("SR*C001*")).toArray());
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 5 }, index.candidates(Arrays.asList("*-BPM*")).toArray());
+        assertArrayEquals(new int[] { 3, 5, 7 }, index.candidates(Arrays.asList("SR*BPM*", "*:ID")).toArray());
+        assertArrayEquals(new int[] { 6 }, index.candidates(Arrays.asList("SR:C1\\*")).toArray());
+        assertArrayEquals(new int[] {}, index.candidates(Arrays.asList("*C003*")).toArray());
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }, index.candidates(Arrays.asList("*?*")).toArray());
+    }
+}
@@ -0,0 +1,58 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the expansion of property value patterns on the property
+ * index
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class PropertyIndexTest {
+
+    /**
+     * 100 channels with a cell property of their position modulo 20, the
+     * first 10 with a type property of their position and channel 5 with a
+     * type property without a value
+     */
+    private static PropertyIndex index() {
+        PropertyIndex.Builder builder = new PropertyIndex.Builder();
+        for (int position = 0; position < 100; position++) {
+            builder.add(position, "cell", String.valueOf(position % 20));
+            if (position < 10) {
+                builder.add(position, "type", position == 5 ? null : "t" + position);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check that the values matching any pattern are OR'ed
+     */
+    @Test
+    public void match() {
+        PropertyIndex index = index();
+        assertEquals(20, index.size("cell"));
+        assertEquals(9, index.size("type"));
+        assertArrayEquals(new int[] { 2, 22, 42, 62, 82 }, index.get("cell", "2").toArray());
+        assertArrayEquals(new int[] { 1, 2, 21, 22, 41, 42, 61, 62, 81, 82 },
+                index.match("cell", Arrays.asList("1", "2")).toArray());
+        assertArrayEquals(new int[] { 1, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 21, 30, 31, 32, 33, 34, 35, 36,
+                37, 38, 39, 41, 50, 51, 52, 53, 54, 55, 56, 57, 58, 59, 61, 70, 71, 72, 73, 74, 75, 76, 77, 78,
+                79, 81, 90, 91, 92, 93, 94, 95, 96, 97, 98, 99 },
+                index.match("cell", Arrays.asList("1*")).toArray());
+        assertArrayEquals(new int[] { 9, 19, 29, 39, 49, 59, 69, 79, 89, 99 },
+                index.match("cell", Arrays.asList("*9")).toArray());
+        assertArrayEquals(new int[] { 12, 32, 52, 72, 92 },
+                index.match("cell", Arrays.asList("?2", "1?2")).toArray());
+        assertArrayEquals(new int[] { 3, 4 }, index.match("type", Arrays.asList("t3", "t4", "t[34]")).toArray());
+        assertArrayEquals(new int[] {}, index.match("type", Arrays.asList("t5", "*5")).toArray());
+        assertArrayEquals(new int[] {}, index.match("none", Arrays.asList("*")).toArray());
+    }
+}
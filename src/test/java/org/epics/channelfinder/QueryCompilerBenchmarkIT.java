@@ -0,0 +1,118 @@
+package org.epics.channelfinder;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.disMaxQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
+import static org.elasticsearch.index.query.QueryBuilders.nestedQuery;
+import static org.elasticsearch.index.query.QueryBuilders.wildcardQuery;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.DisMaxQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.epics.channelfinder.example.PopulateExampleDb;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A benchmark comparing the latency of the scoring wildcard queries with the
+ * compiled non scoring filters on the example database.
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class QueryCompilerBenchmarkIT {
+
+    private static Logger log = Logger.getLogger(QueryCompilerBenchmarkIT.class.getCanonicalName());
+
+    private static final int iterations = 200;
+
+    private static final List<String[]> queries = Arrays.asList(
+            new String[] { "_name", "SR:C001:*" },
+            new String[] { "_name", "SR*C001*" },
+            new String[] { "_tag", "group8_50" },
+            new String[] { "_tag", "tag11 & tag12 & tag13" },
+            new String[] { "group1", "10|2" },
+            new String[] { "_name", "SR*", "_tag", "group8_50", "group1", "500" });
+
+    @BeforeClass
+    public static void setup() {
+        PopulateExampleDb.createDB(2);
+    }
+
+    @AfterClass
+    public static void cleanupDB() {
+        PopulateExampleDb.cleanupDB();
+    }
+
+    @Test
+    public void compareQueries() {
+        TransportClient client = ElasticSearchClientManager.getClient();
+        for (String[] keyValues : queries) {
+            Map<String, String> parameters = new LinkedHashMap<>();
+            for (int i = 0; i < keyValues.length; i += 2) {
+                parameters.put(keyValues[i], keyValues[i + 1]);
+            }
+            ChannelQuery query = ChannelQuery.of(parameters);
+
+            QueryBuilder scoring = scoringQuery(query);
+            QueryBuilder compiled = QueryCompiler.compile(query);
+            long scoringHits = client.prepareSearch("channelfinder").setQuery(scoring).setSize(0).get().getHits()
+                    .getTotalHits();
+            long compiledHits = client.prepareSearch("channelfinder").setQuery(compiled).setSize(0).get().getHits()
+                    .getTotalHits();
+            assertEquals("The compiled query returned different channels for " + query, scoringHits, compiledHits);
+
+            long scoringTime = time(client, scoring);
+            long compiledTime = time(client, compiled);
+            log.info(String.format("%s hits: %d scoring: %.3f ms filter: %.3f ms", query, compiledHits,
+                    scoringTime / 1e6 / iterations, compiledTime / 1e6 / iterations));
+        }
+    }
+
+    private static long time(TransportClient client, QueryBuilder query) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            client.prepareSearch("channelfinder").setQuery(query).setSize(ChannelQuery.DEFAULT_SIZE).get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The scoring query previously used by the service
+     */
+    private static QueryBuilder scoringQuery(ChannelQuery query) {
+        BoolQueryBuilder qb = boolQuery();
+        if (!query.getNames().isEmpty()) {
+            DisMaxQueryBuilder nameQuery = disMaxQuery();
+            for (String pattern : query.getNames()) {
+                nameQuery.add(wildcardQuery("name", pattern));
+            }
+            qb.must(nameQuery);
+        }
+        for (List<String> tagPatterns : query.getTags()) {
+            DisMaxQueryBuilder tagQuery = disMaxQuery();
+            for (String pattern : tagPatterns) {
+                tagQuery.add(wildcardQuery("tags.name", pattern));
+            }
+            qb.must(nestedQuery("tags", tagQuery));
+        }
+        query.getProperties().forEach((name, patterns) -> {
+            DisMaxQueryBuilder propertyQuery = disMaxQuery();
+            for (String pattern : patterns) {
+                propertyQuery.add(nestedQuery("properties", boolQuery().must(matchQuery("properties.name", name))
+                        .must(wildcardQuery("properties.value", pattern))));
+            }
+            qb.must(propertyQuery);
+        });
+        return qb;
+    }
+}
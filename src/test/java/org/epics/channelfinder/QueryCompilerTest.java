@@ -0,0 +1,120 @@
+package org.epics.channelfinder;
+
+import static org.epics.channelfinder.QueryCompiler.patternType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.epics.channelfinder.QueryCompiler.PatternType;
+import org.junit.Test;
+
+/**
+ * Unit test for the compilation of queries into elastic filters
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class QueryCompilerTest {
+
+    /**
+     * Check the classification of the patterns
+     */
+    @Test
+    public void patternTypes() {
+        assertEquals(PatternType.TERM, patternType("SR:C001:DP1"));
+        assertEquals(PatternType.PREFIX, patternType("SR:C001*"));
+        assertEquals(PatternType.PREFIX, patternType("*"));
+        assertEquals(PatternType.WILDCARD, patternType("SR*C001*"));
+        assertEquals(PatternType.WILDCARD, patternType("*:BPM"));
+        assertEquals(PatternType.WILDCARD, patternType("SR:C00?"));
+        assertEquals(PatternType.WILDCARD, patternType("SR\\*"));
+    }
+
+    /**
+     * Check that the query is compiled to non scoring filters
+     */
+    @Test
+    public void compile() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("_name", "SR:C001*");
+        parameters.put("_tag", "group8_50");
+        parameters.put("group1", "10|2*");
+        String query = QueryCompiler.compile(ChannelQuery.of(parameters)).toString().replaceAll("\\s", "");
+
+        assertTrue(query, query.contains("constant_score"));
+        assertTrue(query, query.contains("\"prefix\":{\"name\":\"SR:C001\""));
+        assertTrue(query, query.contains("\"term\":{\"tags.name\":\"group8_50\""));
+        assertTrue(query, query.contains("\"term\":{\"properties.value\":\"10\""));
+        assertTrue(query, query.contains("\"prefix\":{\"properties.value\":\"2\""));
+        assertFalse(query, query.contains("wildcard"));
+    }
+
+    /**
+     * Check that a page of a cursor paginated query starts after the cursor
+     */
+    @Test
+    public void compileCursor() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("_name", "SR*");
+        parameters.put("_cursor", "");
+        String query = QueryCompiler.compile(ChannelQuery.of(parameters)).toString().replaceAll("\\s", "");
+        assertFalse(query, query.contains("range"));
+
+        parameters.put("_cursor", new ChannelCursor("SR:C001:DP1", "channel#SR:C001:DP1").encode());
+        query = QueryCompiler.compile(ChannelQuery.of(parameters)).toString().replaceAll("\\s", "");
+        assertTrue(query, query.contains("\"range\":{\"name\":{\"from\":\"SR:C001:DP1\""));
+        assertTrue(query, query.contains("\"term\":{\"name\":\"SR:C001:DP1\""));
+        assertTrue(query, query.contains("\"range\":{\"_uid\":{\"from\":\"channel#SR:C001:DP1\""));
+        assertTrue(query, query.contains("\"include_lower\":false"));
+    }
+
+    /**
+     * Check that only the fields needed for the result are fetched
+     */
+    @Test
+    public void sourceIncludes() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("_name", "*");
+        assertEquals(Arrays.asList("name", "owner", "properties.name", "properties.value", "tags.name"),
+                Arrays.asList(QueryCompiler.sourceIncludes(ChannelQuery.of(parameters))));
+        parameters.put("_filter", "ALL");
+        assertEquals(Arrays.asList("name", "owner"),
+                Arrays.asList(QueryCompiler.sourceIncludes(ChannelQuery.of(parameters))));
+    }
+
+    /**
+     * Check that a property facet aggregates the values of the property and
+     * the tag facet the tag names
+     */
+    @Test
+    public void compileFacets() throws IOException {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("_name", "*");
+        parameters.put("_facet", "cell,_tag");
+        List<AbstractAggregationBuilder> facets = QueryCompiler.compileFacets(ChannelQuery.of(parameters));
+        assertEquals(2, facets.size());
+
+        String tag = toJson(facets.get(0));
+        assertTrue(tag, tag.contains("\"facet0\":{\"terms\":{\"field\":\"tags.name\""));
+        String property = toJson(facets.get(1));
+        assertTrue(property, property.contains("\"facet1\":{\"nested\":{\"path\":\"properties\"}"));
+        assertTrue(property, property.contains("\"term\":{\"properties.name\":\"cell\"}"));
+        assertTrue(property, property.contains("\"values\":{\"terms\":{\"field\":\"properties.value\""));
+    }
+
+    private static String toJson(AbstractAggregationBuilder aggregation) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        aggregation.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return builder.endObject().string().replaceAll("\\s", "");
+    }
+}
@@ -0,0 +1,73 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the eviction and invalidation of the query result cache
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class QueryResultCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Check that the least recently used results are evicted when the cache is full
+     */
+    @Test
+    public void evictLeastRecentlyUsed() {
+        QueryResultCache<String> cache = new QueryResultCache<>(100, 1, TimeUnit.MINUTES, clock::get);
+        cache.put("a", "result a", 40, cache.generation());
+        cache.put("b", "result b", 40, cache.generation());
+        // use a so that b is the least recently used
+        assertEquals("result a", cache.get("a"));
+        cache.put("c", "result c", 40, cache.generation());
+
+        assertEquals(2, cache.size());
+        assertEquals(80, cache.bytes());
+        assertEquals("result a", cache.get("a"));
+        assertNull("The least recently used result should have been evicted", cache.get("b"));
+        assertEquals("result c", cache.get("c"));
+
+        assertFalse("A result larger than the cache should not be cached",
+                cache.put("d", "result d", 101, cache.generation()));
+    }
+
+    /**
+     * Check that cached results expire
+     */
+    @Test
+    public void expire() {
+        QueryResultCache<String> cache = new QueryResultCache<>(100, 1, TimeUnit.SECONDS, clock::get);
+        cache.put("a", "result a", 10, cache.generation());
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals("result a", cache.get("a"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        assertNull("The result should have expired", cache.get("a"));
+        assertEquals(0, cache.bytes());
+    }
+
+    /**
+     * Check that results of queries started before an invalidation are not cached
+     */
+    @Test
+    public void invalidate() {
+        QueryResultCache<String> cache = new QueryResultCache<>(100, 1, TimeUnit.MINUTES, clock::get);
+        cache.put("a", "result a", 10, cache.generation());
+        long generation = cache.generation();
+        assertEquals(1, cache.invalidate());
+        assertNull(cache.get("a"));
+        assertFalse("A result from before the invalidation should not be cached",
+                cache.put("b", "result b", 10, generation));
+        assertTrue(cache.put("b", "result b", 10, cache.generation()));
+    }
+}
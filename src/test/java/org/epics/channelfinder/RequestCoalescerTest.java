@@ -0,0 +1,96 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.epics.nt.NTTable;
+import org.epics.pvaccess.server.rpc.RPCResponseCallback;
+import org.epics.pvdata.factory.StatusFactory;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.junit.Test;
+
+/**
+ * Unit test for the coalescing of identical in flight requests
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class RequestCoalescerTest {
+
+    /**
+     * Check that only the first request for a query is executed and all the
+     * waiting requests receive its result
+     */
+    @Test
+    public void shareResult() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        List<PVStructure> results = new ArrayList<>();
+        RPCResponseCallback callback1 = (status, result) -> results.add(result);
+        RPCResponseCallback callback2 = (status, result) -> results.add(result);
+        RPCResponseCallback callback3 = (status, result) -> results.add(result);
+
+        assertTrue("The first request should execute the query", coalescer.join("_name=SR*", callback1));
+        assertFalse("An identical request should wait for the first", coalescer.join("_name=SR*", callback2));
+        assertTrue("A different query should be executed", coalescer.join("_name=BR*", callback3));
+        assertEquals(2, coalescer.size());
+
+        PVStructure table = NTTable.createBuilder().addColumn("channelName", ScalarType.pvString).create()
+                .getPVStructure();
+        coalescer.complete("_name=SR*", StatusFactory.getStatusCreate().getStatusOK(), table);
+        assertEquals(2, results.size());
+        assertSame(table, results.get(0));
+        assertSame(table, results.get(1));
+        assertEquals(1, coalescer.size());
+
+        // once completed the next request executes the query again
+        assertTrue("A new request should execute the query", coalescer.join("_name=SR*", callback1));
+    }
+
+    /**
+     * Check that exactly one of many identical requests joining at the same
+     * time executes the query and that all of them are completed
+     */
+    @Test
+    public void concurrentJoin() throws Exception {
+        int threads = 16;
+        for (int round = 0; round < 100; round++) {
+            RequestCoalescer coalescer = new RequestCoalescer();
+            AtomicInteger completed = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Boolean>> joins = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    joins.add(executor.submit(() -> {
+                        start.await();
+                        return coalescer.join("_name=SR*", (status, result) -> completed.incrementAndGet());
+                    }));
+                }
+                start.countDown();
+                int first = 0;
+                for (Future<Boolean> join : joins) {
+                    if (join.get(10, TimeUnit.SECONDS)) {
+                        first++;
+                    }
+                }
+                assertEquals("Exactly one request should execute the query", 1, first);
+                coalescer.complete("_name=SR*", StatusFactory.getStatusCreate().getStatusOK(), null);
+                assertEquals(threads, completed.get());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+}
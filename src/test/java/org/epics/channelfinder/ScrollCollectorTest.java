@@ -0,0 +1,84 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Unit test for collecting a result from the batches of a scroll
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class ScrollCollectorTest {
+
+    private static final ForkJoinPool pool = new ForkJoinPool(2);
+    private static final ChannelHitDecoder decoder = new ChannelHitDecoder(pool, 3);
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    private static SearchHit[] batch(int first, int count) throws IOException {
+        SearchHit[] hits = new SearchHit[count];
+        for (int i = 0; i < count; i++) {
+            XmlChannel channel = new XmlChannel("ch" + (first + i), "owner");
+            hits[i] = new InternalSearchHit(first + i, channel.getName(), new StringText("cf_type"), null)
+                    .sourceRef(new BytesArray(ChannelFinderService.channelMapper.writeValueAsBytes(channel)));
+        }
+        return hits;
+    }
+
+    private static List<String> names(ChannelColumns columns) {
+        List<String> names = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            names.add(columns.getName(row));
+        }
+        return names;
+    }
+
+    /**
+     * Check that all the batches are collected in order until the scroll is
+     * exhausted
+     */
+    @Test
+    public void collectAll() throws IOException {
+        ScrollCollector collector = new ScrollCollector(decoder, Collections.emptySet(), ChannelQuery.ALL);
+        assertTrue(collector.add(batch(0, 4)));
+        assertTrue(collector.add(batch(4, 4)));
+        assertTrue(collector.add(batch(8, 2)));
+        assertFalse(collector.add(batch(10, 0)));
+        assertEquals(10, collector.size());
+        assertEquals(Arrays.asList("ch0", "ch1", "ch2", "ch3", "ch4", "ch5", "ch6", "ch7", "ch8", "ch9"),
+                names(collector.columns()));
+    }
+
+    /**
+     * Check that the scroll stops once size hits are collected, within a
+     * batch
+     */
+    @Test
+    public void size() throws IOException {
+        ScrollCollector collector = new ScrollCollector(decoder, Collections.emptySet(), 6);
+        assertTrue(collector.add(batch(0, 4)));
+        assertEquals(4, collector.size());
+        assertFalse("size hits have been collected", collector.add(batch(4, 4)));
+        assertEquals(Arrays.asList("ch0", "ch1", "ch2", "ch3", "ch4", "ch5"), names(collector.columns()));
+        assertEquals("cf_type#ch5", collector.getLastUid());
+    }
+}
@@ -0,0 +1,99 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.epics.nt.NTTable;
+import org.epics.nt.NTURI;
+import org.epics.pvaccess.client.rpc.RPCClientImpl;
+import org.epics.pvaccess.server.rpc.RPCRequestException;
+import org.epics.pvdata.pv.PVStructure;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration tests for the streaming of results as pages
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class StreamServiceIT {
+
+    private static RPCClientImpl client;
+    private static RPCClientImpl streamClient;
+
+    @BeforeClass
+    public static void setup() {
+        client = new RPCClientImpl(ChannelFinderService.SERVICE_DESC);
+        streamClient = new RPCClientImpl(ChannelFinderService.STREAM_SERVICE_DESC);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        client.destroy();
+        streamClient.destroy();
+    }
+
+    /**
+     * Check that streaming the pages of a query returns the same channels as
+     * the query
+     */
+    @Test
+    public void streamAll() throws Exception {
+        NTURI uri = NTURI.createBuilder().addQueryString("_name").addQueryString("_size").create();
+        uri.getPVStructure().getStringField("scheme").put("pva");
+        uri.getPVStructure().getStringField("path").put(ChannelFinderService.SERVICE_DESC);
+        uri.getQuery().getStringField("_name").put("*");
+        uri.getQuery().getStringField("_size").put("100000");
+        Set<String> expected = XmlUtil.parse(client.request(uri.getPVStructure(), 10.0)).stream()
+                .map(XmlChannel::getName).collect(Collectors.toSet());
+
+        NTURI streamUri = NTURI.createBuilder().addQueryString("_name").addQueryString("_session").create();
+        streamUri.getPVStructure().getStringField("scheme").put("pva");
+        streamUri.getPVStructure().getStringField("path").put(ChannelFinderService.STREAM_SERVICE_DESC);
+        streamUri.getQuery().getStringField("_name").put("*");
+        streamUri.getQuery().getStringField("_session").put("");
+
+        List<String> streamed = new ArrayList<>();
+        int pages = 0;
+        String session;
+        do {
+            PVStructure page = streamClient.request(streamUri.getPVStructure(), 10.0);
+            streamed.addAll(XmlUtil.parse(page).stream().map(XmlChannel::getName).collect(Collectors.toList()));
+            session = NTTable.wrap(page).getDescriptor().get();
+            streamUri.getQuery().getStringField("_session").put(session);
+            pages++;
+        } while (!session.isEmpty());
+
+        assertTrue("Expected more than one page for " + expected.size() + " channels", pages > 1);
+        assertEquals("Channels were streamed more than once", streamed.size(), new HashSet<>(streamed).size());
+        assertEquals(expected, new HashSet<>(streamed));
+    }
+
+    /**
+     * Check that a count query is rejected instead of being streamed as
+     * channels
+     */
+    @Test
+    public void rejectCount() throws Exception {
+        NTURI streamUri = NTURI.createBuilder().addQueryString("_name").addQueryString("_count").create();
+        streamUri.getPVStructure().getStringField("scheme").put("pva");
+        streamUri.getPVStructure().getStringField("path").put(ChannelFinderService.STREAM_SERVICE_DESC);
+        streamUri.getQuery().getStringField("_name").put("*");
+        streamUri.getQuery().getStringField("_count").put("true");
+        try {
+            streamClient.request(streamUri.getPVStructure(), 10.0);
+            fail("a count query should not be streamed");
+        } catch (RPCRequestException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("can be streamed"));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the sessions of the streamed results
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class StreamSessionsTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Check that a session can only be taken once until it is resumed
+     */
+    @Test
+    public void takeAndResume() {
+        StreamSessions<String> sessions = new StreamSessions<>(10, 1, TimeUnit.MINUTES, clock::get);
+        String token = sessions.open();
+        assertNotNull(token);
+        assertNull("The session has not been resumed yet", sessions.take(token));
+        sessions.resume(token, "page 1");
+
+        assertEquals("page 1", sessions.take(token));
+        assertNull("The session is already taken", sessions.take(token));
+        sessions.resume(token, "page 2");
+        assertEquals("page 2", sessions.take(token));
+        sessions.close();
+
+        assertNull("The session is closed", sessions.take(token));
+        assertEquals(0, sessions.size());
+    }
+
+    /**
+     * Check that the taken sessions count towards the maximum number of
+     * sessions
+     */
+    @Test
+    public void maxSessions() {
+        StreamSessions<String> sessions = new StreamSessions<>(2, 1, TimeUnit.MINUTES, clock::get);
+        String token1 = sessions.open();
+        String token2 = sessions.open();
+        assertNull("The maximum number of sessions are open", sessions.open());
+        sessions.resume(token1, "a");
+        assertNull("The maximum number of sessions are open", sessions.open());
+        sessions.resume(token2, "b");
+        sessions.take(token2);
+        sessions.close();
+        assertNotNull(sessions.open());
+    }
+
+    /**
+     * Check that only the sessions which were not resumed within the keep
+     * alive expire
+     */
+    @Test
+    public void expire() {
+        StreamSessions<String> sessions = new StreamSessions<>(10, 1, TimeUnit.MINUTES, clock::get);
+        String token1 = sessions.open();
+        sessions.resume(token1, "a");
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(40));
+        String token2 = sessions.open();
+        sessions.resume(token2, "b");
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(40));
+
+        assertEquals(Arrays.asList("a"), sessions.expire());
+        assertNull(sessions.take(token1));
+        assertEquals("b", sessions.take(token2));
+        sessions.resume(token2, "c");
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(40));
+        assertTrue(sessions.expire().isEmpty());
+        assertEquals(1, sessions.size());
+    }
+}
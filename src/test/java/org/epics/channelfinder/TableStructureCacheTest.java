@@ -0,0 +1,116 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.epics.channelfinder.TableStructureCache.Column;
+import org.epics.pvdata.pv.ScalarType;
+import org.junit.Test;
+
+/**
+ * Unit test for the caching of the NTTable structures per column set
+ *
+ * @author Kunal Shroff
+ *
+ */
+public class TableStructureCacheTest {
+
+    private final List<List<Column>> created = new ArrayList<>();
+
+    private TableStructureCache createCache(int maxSize) {
+        return new TableStructureCache(maxSize, (columns, descriptor) -> {
+            created.add(columns);
+            return null;
+        });
+    }
+
+    private static List<Column> columns(String... fields) {
+        List<Column> columns = new ArrayList<>();
+        for (String field : fields) {
+            columns.add(new Column(field, ScalarType.pvString));
+        }
+        return columns;
+    }
+
+    /**
+     * Check that the shape of a column set is created once and that the labels
+     * list the columns in order
+     */
+    @Test
+    public void reuseShape() {
+        TableStructureCache cache = createCache(10);
+        List<Column> columns = columns("channelName", "owner", "cell");
+        columns.add(new Column("tag0", ScalarType.pvBoolean, "tag1"));
+        TableStructureCache.TableShape shape = cache.getShape(columns, false);
+        assertArrayEquals(new String[] { "channelName", "owner", "cell", "tag1" }, shape.getLabels());
+
+        // the key must not change when the columns of the request change
+        columns.add(new Column("group1", ScalarType.pvString));
+        List<Column> same = columns("channelName", "owner", "cell");
+        same.add(new Column("tag0", ScalarType.pvBoolean, "tag1"));
+        assertSame(shape, cache.getShape(same, false));
+        assertEquals(1, created.size());
+    }
+
+    /**
+     * Check that the column order, types and labels and the descriptor are
+     * part of the key
+     */
+    @Test
+    public void distinctColumnSets() {
+        TableStructureCache cache = createCache(10);
+        TableStructureCache.TableShape shape = cache.getShape(columns("a", "b"), false);
+        assertNotSame(shape, cache.getShape(columns("b", "a"), false));
+        assertNotSame(shape, cache.getShape(
+                Arrays.asList(new Column("a", ScalarType.pvString), new Column("b", ScalarType.pvBoolean)), false));
+        assertNotSame(shape, cache.getShape(
+                Arrays.asList(new Column("a", ScalarType.pvString), new Column("b", ScalarType.pvString, "c")), false));
+        assertNotSame(shape, cache.getShape(columns("a", "b"), true));
+        assertEquals(5, cache.size());
+    }
+
+    /**
+     * Check that the columns of the structures next to the value are labelled
+     * apart from the columns of the value and are part of the key
+     */
+    @Test
+    public void structureLabels() {
+        TableStructureCache cache = createCache(10);
+        List<Column> columns = columns("channelName", "owner");
+        columns.add(new Column("property0", ScalarType.pvString, "cell", "sparse"));
+        columns.add(new Column("property0Rows", ScalarType.pvInt, "cell", "sparse"));
+        columns.add(new Column("tag0", ScalarType.pvBoolean, "group"));
+        TableStructureCache.TableShape shape = cache.getShape(columns, false);
+        assertArrayEquals(new String[] { "channelName", "owner", "group" }, shape.getLabels());
+        assertEquals(Collections.singleton("sparse"), shape.getStructureLabels().keySet());
+        assertArrayEquals(new String[] { "cell", "cell" }, shape.getStructureLabels().get("sparse"));
+
+        List<Column> value = columns("channelName", "owner");
+        value.add(new Column("property0", ScalarType.pvString, "cell"));
+        assertNotSame(shape, cache.getShape(value, false));
+    }
+
+    /**
+     * Check that the least recently used column sets are evicted
+     */
+    @Test
+    public void evictLeastRecentlyUsed() {
+        TableStructureCache cache = createCache(2);
+        TableStructureCache.TableShape a = cache.getShape(columns("a"), false);
+        cache.getShape(columns("b"), false);
+        assertSame(a, cache.getShape(columns("a"), false));
+        cache.getShape(columns("c"), false);
+
+        assertEquals(2, cache.size());
+        assertSame(a, cache.getShape(columns("a"), false));
+        cache.getShape(columns("b"), false);
+        assertEquals("The evicted column set should be created again", 4, created.size());
+    }
+}
@@ -0,0 +1,63 @@
+package org.epics.channelfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the evaluation of tag clauses on the tag index
+ * 
+ * @author Kunal Shroff
+ *
+ */
+public class TagIndexTest {
+
+    /**
+     * 100 channels, all tagged group, the even ones even, every tenth one
+     * tag10 and channel 7 tag7
+     */
+    private static TagIndex index() {
+        TagIndex.Builder builder = new TagIndex.Builder();
+        for (int position = 0; position < 100; position++) {
+            builder.add(position, "group");
+            if (position % 2 == 0) {
+                builder.add(position, "even");
+            }
+            if (position % 10 == 0) {
+                builder.add(position, "tag10");
+            }
+            if (position == 7) {
+                builder.add(position, "tag7");
+            }
+        }
+        return builder.build();
+    }
+
+    private static List<List<String>> clauses(String... clauses) {
+        return Arrays.asList(clauses).stream().map((c) -> Arrays.asList(c.split("\\|")))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Check that the clauses are AND'ed and the patterns of a clause OR'ed
+     */
+    @Test
+    public void match() {
+        TagIndex index = index();
+        assertArrayEquals(new int[] { 0, 10, 20, 30, 40, 50, 60, 70, 80, 90 },
+                index.match(clauses("tag10", "even", "group")).toArray());
+        assertArrayEquals(new int[] { 0, 7, 10, 20, 30, 40, 50, 60, 70, 80, 90 },
+                index.match(clauses("tag10|tag7")).toArray());
+        assertArrayEquals(new int[] { 0, 7, 10, 20, 30, 40, 50, 60, 70, 80, 90 },
+                index.match(clauses("tag*", "group")).toArray());
+        assertArrayEquals(new int[] { 7 }, index.match(clauses("t?g7")).toArray());
+        assertArrayEquals(new int[] {}, index.match(clauses("tag7", "even")).toArray());
+        assertArrayEquals(new int[] {}, index.match(Collections.singletonList(Arrays.asList("none"))).toArray());
+        assertArrayEquals(new int[] {}, index.match(clauses("none|nothing*", "group")).toArray());
+    }
+}
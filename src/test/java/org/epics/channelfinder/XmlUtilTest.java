@@ -3,13 +3,20 @@ package org.epics.channelfinder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import org.epics.channelfinder.ChannelQuery.Format;
 import org.epics.nt.NTTable;
 import org.epics.nt.NTTableBuilder;
+import org.epics.pvdata.pv.PVField;
 import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
 import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.StringArrayData;
 import org.junit.Test;
 
 /**
@@ -41,4 +48,130 @@ public class XmlUtilTest {
             fail(e.getMessage());
         }
     }
+
+    /**
+     * Check that the dense, sparse and dictionary formats of a result are
+     * parsed into the same channels, with properties and tags set on most and
+     * on few channels and properties with few distinct values
+     */
+    @Test
+    public void formats() throws Exception {
+        List<XmlChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            XmlChannel channel = new XmlChannel("ch" + i, "owner");
+            channel.getProperties().add(new XmlProperty("common", null, String.valueOf(i)));
+            channel.getProperties().add(new XmlProperty("group", null, String.valueOf(i % 2)));
+            channel.getTags().add(new XmlTag("all"));
+            if (i % 10 == 3) {
+                channel.getProperties().add(new XmlProperty("rare", null, "r" + i));
+                channel.getTags().add(new XmlTag("few"));
+            }
+            channels.add(channel);
+        }
+        for (Format format : Format.values()) {
+            ChannelColumns columns = columns(channels);
+            assertEquals(format + " format", channels, XmlUtil.parse(columns.createTable(format).getPVStructure()));
+        }
+    }
+
+    /**
+     * Check that the value of a sparse table only holds columns of the table
+     * length and that the sparse columns are labelled in the sparse structure
+     */
+    @Test
+    public void sparseStructure() throws Exception {
+        List<XmlChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            XmlChannel channel = new XmlChannel("ch" + i, "owner");
+            channel.getProperties().add(new XmlProperty("common", null, String.valueOf(i)));
+            if (i == 3) {
+                channel.getProperties().add(new XmlProperty("rare", null, "r" + i));
+                channel.getTags().add(new XmlTag("few"));
+            }
+            channels.add(channel);
+        }
+        NTTable table = columns(channels).createTable(Format.SPARSE);
+        for (String name : table.getColumnNames()) {
+            assertEquals(name, channels.size(), table.getColumn(name).getLength());
+        }
+        PVStructure sparse = table.getPVStructure().getSubField(PVStructure.class, ChannelColumns.SPARSE);
+        StringArrayData labels = new StringArrayData();
+        sparse.getSubField(PVStringArray.class, "labels").get(0, 3, labels);
+        assertEquals(Arrays.asList("rare", "rare", "few"), Arrays.asList(labels.data).subList(0, 3));
+        assertEquals(Arrays.asList("property1", "property1Rows", "tag0"),
+                Arrays.stream(sparse.getStructureField("value").getPVFields()).map(PVField::getFieldName)
+                        .collect(Collectors.toList()));
+        assertEquals(channels, XmlUtil.parse(table.getPVStructure()));
+    }
+
+    /**
+     * Check that the value of a dictionary table only holds the codes of the
+     * dictionary encoded properties and that the dictionaries are labelled in
+     * the dictionaries structure
+     */
+    @Test
+    public void dictionaryStructure() throws Exception {
+        List<XmlChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            XmlChannel channel = new XmlChannel("ch" + i, "owner");
+            channel.getProperties().add(new XmlProperty("common", null, String.valueOf(i)));
+            channel.getProperties().add(new XmlProperty("group", null, String.valueOf(i % 2)));
+            channels.add(channel);
+        }
+        NTTable table = columns(channels).createTable(Format.DICTIONARY);
+        assertEquals(Arrays.asList("channelName", "owner", "property0", "property1Codes"),
+                Arrays.asList(table.getColumnNames()));
+        for (String name : table.getColumnNames()) {
+            assertEquals(name, channels.size(), table.getColumn(name).getLength());
+        }
+        PVStructure dictionaries = table.getPVStructure().getSubField(PVStructure.class,
+                ChannelColumns.DICTIONARIES);
+        StringArrayData labels = new StringArrayData();
+        dictionaries.getSubField(PVStringArray.class, "labels").get(0, 1, labels);
+        assertEquals("group", labels.data[0]);
+        assertEquals(2, dictionaries.getSubField(PVStringArray.class, "value.property1").getLength());
+        assertEquals(channels, XmlUtil.parse(table.getPVStructure()));
+    }
+
+    /**
+     * Check that the channels of a batch result are split by the query they
+     * matched, including a query matching no channels
+     */
+    @Test
+    public void batch() throws Exception {
+        List<XmlChannel> first = new ArrayList<>();
+        List<XmlChannel> second = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            XmlChannel channel = new XmlChannel("ch" + i, "owner");
+            channel.getProperties().add(new XmlProperty("cell", null, String.valueOf(i % 3)));
+            first.add(channel);
+        }
+        for (int i = 0; i < 5; i++) {
+            XmlChannel channel = new XmlChannel("sr" + i, "owner");
+            channel.getTags().add(new XmlTag("group"));
+            second.add(channel);
+        }
+        ChannelColumns columns = ChannelColumns.concat(
+                Arrays.asList(columns(first), columns(Collections.emptyList()), columns(second)));
+        for (Format format : Format.values()) {
+            assertEquals(format + " format", Arrays.asList(first, Collections.emptyList(), second),
+                    XmlUtil.parseBatch(columns.createTable(format).getPVStructure(), 3));
+        }
+    }
+
+    private static ChannelColumns columns(List<XmlChannel> channels) {
+        ChannelColumns columns = new ChannelColumns(channels.size(), Collections.emptySet());
+        for (int row = 0; row < channels.size(); row++) {
+            XmlChannel channel = channels.get(row);
+            columns.name(row, channel.getName());
+            columns.owner(row, channel.getOwner());
+            for (XmlProperty property : channel.getProperties()) {
+                columns.property(row, property.getName(), property.getValue());
+            }
+            for (XmlTag tag : channel.getTags()) {
+                columns.tag(row, tag.getName());
+            }
+        }
+        return columns;
+    }
 }